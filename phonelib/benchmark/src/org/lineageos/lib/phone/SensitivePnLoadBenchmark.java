@@ -0,0 +1,103 @@
+/*
+ * Copyright (C) 2021 The LineageOS Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.lineageos.lib.phone;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.ByteArrayInputStream;
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Cold start costs: parsing the XML list, building the index and mapping a cached index.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class SensitivePnLoadBenchmark {
+    private static final long SOURCE_STAMP = 1;
+
+    @Param({"100", "1000", "10000", "100000"})
+    public int itemCount;
+
+    @Param({"2", "50", "250"})
+    public int mccCount;
+
+    private byte[] mXml;
+    private File mIndexFile;
+    private long mIndexLength;
+
+    @Setup(Level.Trial)
+    public void setUp() throws Exception {
+        mXml = SyntheticLists.generateXml(itemCount, mccCount);
+        ByteBuffer data = parse(true).build(SOURCE_STAMP, mXml.length);
+        mIndexFile = File.createTempFile("sensitive_pn", ".idx");
+        if (!SensitivePnIndex.write(mIndexFile, data)) {
+            throw new IOException("Can not write " + mIndexFile);
+        }
+        mIndexLength = mXml.length;
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() {
+        mIndexFile.delete();
+    }
+
+    @Benchmark
+    public SensitivePnIndex.Builder parseXml() throws Exception {
+        return parse(true);
+    }
+
+    @Benchmark
+    public SensitivePnIndex.Builder parseXmlNumbersOnly() throws Exception {
+        return parse(false);
+    }
+
+    @Benchmark
+    public SensitivePnIndex parseAndBuildIndex() throws Exception {
+        return new SensitivePnIndex(parse(true).build(SOURCE_STAMP, mXml.length));
+    }
+
+    @Benchmark
+    public SensitivePnIndex mapCachedIndex() {
+        return SensitivePnIndex.map(mIndexFile, SOURCE_STAMP, mIndexLength);
+    }
+
+    private SensitivePnIndex.Builder parse(boolean includeOptionalFields) throws Exception {
+        SensitivePnIndex.Builder builder = new SensitivePnIndex.Builder();
+        builder.startSource();
+        SensitivePnParser.parse(new ByteArrayInputStream(mXml), builder, includeOptionalFields);
+        return builder;
+    }
+}
@@ -0,0 +1,164 @@
+/*
+ * Copyright (C) 2021 The LineageOS Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.lineageos.lib.phone;
+
+import org.lineageos.lib.phone.spn.Item;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.ByteArrayInputStream;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Per-number lookup latency and batch throughput against a loaded snapshot.
+ *
+ * The MCC discovery of SensitivePhoneNumbers needs a device, so the benchmarks use a fixed
+ * set of MCCs. The single lookups start from already formatted national numbers, the batch
+ * goes through the same formatting and deduplication as SensitivePhoneNumbers.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class SensitivePnLookupBenchmark {
+    private static final int BATCH_SIZE = 500;
+    private static final int CHECKED_MCC_COUNT = 3;
+    private static final String COUNTRY_ISO = "DE";
+
+    @Param({"100", "1000", "10000", "100000"})
+    public int itemCount;
+
+    @Param({"2", "50", "250"})
+    public int mccCount;
+
+    private SensitiveNumbersSnapshot mSnapshot;
+    private String[] mMccs;
+    private String mHit;
+    private String mMiss;
+    private List<String> mMccList;
+    private List<String> mBatch;
+    private NationalNumberCache mNationalNumbers;
+
+    @Setup(Level.Trial)
+    public void setUp() throws Exception {
+        byte[] xml = SyntheticLists.generateXml(itemCount, mccCount);
+        SensitivePnIndex.Builder builder = new SensitivePnIndex.Builder();
+        builder.startSource();
+        SensitivePnParser.parse(new ByteArrayInputStream(xml), builder, true);
+        mSnapshot = new SensitiveNumbersSnapshot(
+                new SensitivePnIndex(builder.build(1, xml.length)),
+                SensitiveNumberHash.DEFAULT_MIN_MATCH, false);
+
+        // Like a dual SIM device: two subscriptions and the network, the last one matching
+        int listCount = SyntheticLists.listCount(mccCount);
+        int list = listCount - 1;
+        mMccs = new String[CHECKED_MCC_COUNT];
+        for (int i = 0; i < CHECKED_MCC_COUNT; i++) {
+            int checkedList = list - CHECKED_MCC_COUNT + 1 + i;
+            // Fewer lists than checked MCCs, fill up with distinct MCCs without a list
+            mMccs[i] = checkedList >= 0 ? SyntheticLists.mccFor(checkedList)
+                    : String.valueOf(SyntheticLists.FIRST_MCC + checkedList);
+        }
+        mMccList = Arrays.asList(mMccs);
+        int itemsInList = itemCount / listCount;
+        mHit = SyntheticLists.numberFor(list, itemsInList - 1);
+        mMiss = "0123 4567890";
+
+        // A call log: mostly unknown numbers, a few hotlines, many repetitions
+        Random random = new Random(42);
+        String[] batch = new String[BATCH_SIZE];
+        for (int i = 0; i < BATCH_SIZE; i++) {
+            batch[i] = random.nextInt(10) == 0
+                    ? SyntheticLists.numberFor(list, random.nextInt(Math.max(1, itemsInList)))
+                    : "0171 " + (1000000 + random.nextInt(100));
+        }
+        mBatch = Arrays.asList(batch);
+        // Sized like the cache of SensitivePhoneNumbers
+        mNationalNumbers = new NationalNumberCache(512);
+
+        // Build the lazy per-list structures and fill the number cache outside of the
+        // measurement
+        lookupHit();
+        findItemExact();
+        batch();
+    }
+
+    @Benchmark
+    public boolean lookupHit() {
+        return isSensitive(mHit);
+    }
+
+    @Benchmark
+    public boolean lookupMiss() {
+        return isSensitive(mMiss);
+    }
+
+    @Benchmark
+    public Item findItemExact() {
+        return findItem(mHit, SensitiveNumberTrie.MATCH_EXACT);
+    }
+
+    @Benchmark
+    public Item findItemPrefix() {
+        return findItem(mHit + "12", SensitiveNumberTrie.MATCH_EXACT
+                | SensitiveNumberTrie.MATCH_PREFIX);
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(BATCH_SIZE)
+    public BitSet batch() {
+        return mSnapshot.isSensitiveNumbers(mBatch, mMccList, mNationalNumbers, COUNTRY_ISO);
+    }
+
+    private boolean isSensitive(String number) {
+        for (String mcc : mMccs) {
+            if (mSnapshot.isSensitiveNumber(number, mcc)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private Item findItem(String number, int matchFlags) {
+        for (String mcc : mMccs) {
+            Item item = mSnapshot.findItem(number, mcc, matchFlags,
+                    SensitiveNumberTrie.CATEGORY_ALL);
+            if (item != null) {
+                return item;
+            }
+        }
+        return null;
+    }
+}
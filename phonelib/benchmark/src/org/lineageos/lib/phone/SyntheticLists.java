@@ -0,0 +1,87 @@
+/*
+ * Copyright (C) 2021 The LineageOS Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.lineageos.lib.phone;
+
+import java.nio.charset.StandardCharsets;
+import java.util.Random;
+
+/**
+ * Generates reproducible sensitive_pn.xml contents of arbitrary size.
+ */
+final class SyntheticLists {
+    private static final long SEED = 0x5350_4e49L;
+
+    private SyntheticLists() {
+        // This class is not supposed to be instantiated
+    }
+
+    /** First MCC of the generated lists, the others follow in steps of one */
+    static final int FIRST_MCC = 200;
+
+    /**
+     * @param itemCount total number of items over all lists
+     * @param mccCount number of distinct MCCs, every list is shared by two of them
+     */
+    static byte[] generateXml(int itemCount, int mccCount) {
+        Random random = new Random(SEED);
+        int listCount = Math.max(1, mccCount / 2);
+        StringBuilder xml = new StringBuilder(itemCount * 160);
+        xml.append("<?xml version=\"1.0\" encoding=\"utf-8\"?>\n<sensitivePNS>\n");
+        for (int list = 0; list < listCount; list++) {
+            int first = FIRST_MCC + list * 2;
+            xml.append("  <sensitivePN network=\"").append(first);
+            if (first + 1 < FIRST_MCC + mccCount) {
+                xml.append(',').append(first + 1);
+            }
+            xml.append("\">\n");
+            int items = itemCount / listCount + (list < itemCount % listCount ? 1 : 0);
+            for (int i = 0; i < items; i++) {
+                xml.append("    <item>\n");
+                xml.append("      <number>").append(numberFor(list, i)).append("</number>\n");
+                xml.append("      <name>Hotline ").append(i).append("</name>\n");
+                xml.append("      <categories>").append(random.nextInt(8)).append("</categories>\n");
+                xml.append("      <languages>en</languages>\n");
+                xml.append("      <organization>Organization ").append(i)
+                        .append("</organization>\n");
+                xml.append("      <website>https://example.org/").append(i).append("</website>\n");
+                xml.append("    </item>\n");
+            }
+            xml.append("  </sensitivePN>\n");
+        }
+        xml.append("</sensitivePNS>\n");
+        return xml.toString().getBytes(StandardCharsets.UTF_8);
+    }
+
+    /**
+     * @return the national number of the given item, in the format the lookups use
+     */
+    static String numberFor(int list, int position) {
+        // Mix short codes in, as real lists contain them as well
+        if (position % 16 == 0) {
+            return String.valueOf(100000 + list * 997 + position);
+        }
+        return "0" + (800000000L + list * 1_000_003L + position * 7919L);
+    }
+
+    static String mccFor(int list) {
+        return String.valueOf(FIRST_MCC + list * 2);
+    }
+
+    static int listCount(int mccCount) {
+        return Math.max(1, mccCount / 2);
+    }
+}
@@ -0,0 +1,273 @@
+/*
+ * Copyright (C) 2021 The LineageOS Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package android.telephony;
+
+/**
+ * Host stand-in for the framework PhoneNumberUtils.
+ *
+ * {@link #compare} is the loose comparison of the framework, so host tests can check the
+ * lookups against it and the benchmarks get the same amount of work as on a device.
+ */
+public final class PhoneNumberUtils {
+    public static final char PAUSE = ',';
+    public static final char WAIT = ';';
+    public static final char WILD = 'N';
+
+    private static final int MIN_MATCH = 7;
+
+    private PhoneNumberUtils() {
+        // This class is not supposed to be instantiated
+    }
+
+    public static boolean compare(String a, String b) {
+        int ia, ib;
+        int matched;
+        int numNonDialableCharsInA = 0;
+        int numNonDialableCharsInB = 0;
+
+        if (a == null || b == null) return a == b;
+
+        if (a.length() == 0 || b.length() == 0) {
+            return false;
+        }
+
+        ia = indexOfLastNetworkChar(a);
+        ib = indexOfLastNetworkChar(b);
+        matched = 0;
+
+        while (ia >= 0 && ib >= 0) {
+            char ca, cb;
+            boolean skipCmp = false;
+
+            ca = a.charAt(ia);
+
+            if (!isDialable(ca)) {
+                ia--;
+                skipCmp = true;
+                numNonDialableCharsInA++;
+            }
+
+            cb = b.charAt(ib);
+
+            if (!isDialable(cb)) {
+                ib--;
+                skipCmp = true;
+                numNonDialableCharsInB++;
+            }
+
+            if (!skipCmp) {
+                if (cb != ca && ca != WILD && cb != WILD) {
+                    break;
+                }
+                ia--; ib--; matched++;
+            }
+        }
+
+        if (matched < MIN_MATCH) {
+            int effectiveALen = a.length() - numNonDialableCharsInA;
+            int effectiveBLen = b.length() - numNonDialableCharsInB;
+
+            // if the number of dialable chars in a and b match, but the matched chars < MIN_MATCH,
+            // treat them as equal (i.e. 404-04 and 40404)
+            if (effectiveALen == effectiveBLen && effectiveALen == matched) {
+                return true;
+            }
+
+            return false;
+        }
+
+        // At least one string has matched completely;
+        if (matched >= MIN_MATCH && (ia < 0 || ib < 0)) {
+            return true;
+        }
+
+        /*
+         * Now, what remains must be one of the following for a
+         * match:
+         *
+         *  - a '+' on one and a '00' or a '011' on the other
+         *  - a '0' on one and a (+,00)<country code> on the other
+         *     (for this, a '0' and a '00' prefix would have succeeded above)
+         */
+
+        if (matchIntlPrefix(a, ia + 1)
+                && matchIntlPrefix(b, ib + 1)) {
+            return true;
+        }
+
+        if (matchTrunkPrefix(a, ia + 1)
+                && matchIntlPrefixAndCC(b, ib + 1)) {
+            return true;
+        }
+
+        if (matchTrunkPrefix(b, ib + 1)
+                && matchIntlPrefixAndCC(a, ia + 1)) {
+            return true;
+        }
+
+        return false;
+    }
+
+    public static boolean isDialable(char c) {
+        return (c >= '0' && c <= '9') || c == '*' || c == '#' || c == '+' || c == WILD;
+    }
+
+    public static boolean isNonSeparator(char c) {
+        return (c >= '0' && c <= '9') || c == '*' || c == '#' || c == '+'
+                || c == WILD || c == WAIT || c == PAUSE;
+    }
+
+    public static boolean isISODigit(char c) {
+        return c >= '0' && c <= '9';
+    }
+
+    private static int indexOfLastNetworkChar(String a) {
+        int pIndex, wIndex;
+        int origLength;
+        int trimIndex;
+
+        origLength = a.length();
+
+        pIndex = a.indexOf(PAUSE);
+        wIndex = a.indexOf(WAIT);
+
+        trimIndex = minPositive(pIndex, wIndex);
+
+        if (trimIndex < 0) {
+            return origLength - 1;
+        } else {
+            return trimIndex - 1;
+        }
+    }
+
+    private static int minPositive(int a, int b) {
+        if (a >= 0 && b >= 0) {
+            return (a < b) ? a : b;
+        } else if (a >= 0) { /* && b < 0 */
+            return a;
+        } else if (b >= 0) { /* && a < 0 */
+            return b;
+        } else { /* a < 0 && b < 0 */
+            return -1;
+        }
+    }
+
+    /** all of a up to len must be an international prefix or separators/non-dialing digits */
+    private static boolean matchIntlPrefix(String a, int len) {
+        /* '([^0-9*#+pwn]\+[^0-9*#+pwn] | [^0-9*#+pwn]0(0|11)[^0-9*#+pwn] )$' */
+        /*        0       1                           2 3 45               */
+
+        int state = 0;
+        for (int i = 0; i < len; i++) {
+            char c = a.charAt(i);
+
+            switch (state) {
+                case 0:
+                    if      (c == '+') state = 1;
+                    else if (c == '0') state = 2;
+                    else if (isNonSeparator(c)) return false;
+                break;
+
+                case 2:
+                    if      (c == '0') state = 3;
+                    else if (c == '1') state = 4;
+                    else if (isNonSeparator(c)) return false;
+                break;
+
+                case 4:
+                    if      (c == '1') state = 5;
+                    else if (isNonSeparator(c)) return false;
+                break;
+
+                default:
+                    if (isNonSeparator(c)) return false;
+                break;
+
+            }
+        }
+
+        return state == 1 || state == 3 || state == 5;
+    }
+
+    /** all of 'a' up to len must match non-US trunk prefix ('0') */
+    private static boolean matchTrunkPrefix(String a, int len) {
+        boolean found;
+
+        found = false;
+
+        for (int i = 0; i < len; i++) {
+            char c = a.charAt(i);
+
+            if (c == '0' && !found) {
+                found = true;
+            } else if (isNonSeparator(c)) {
+                return false;
+            }
+        }
+
+        return found;
+    }
+
+    /** all of 'a' up to len must be a (+|00|011)country code)
+     *  We're fast and loose with the country code. Any \d{1,3} matches */
+    private static boolean matchIntlPrefixAndCC(String a, int len) {
+        /*  [^0-9*#+pwn]*(\+|0(0|11)\d\d?\d? [^0-9*#+pwn] $ */
+        /*      0          1 2 3 45  6 7  8                 */
+
+        int state = 0;
+        for (int i = 0; i < len; i++) {
+            char c = a.charAt(i);
+
+            switch (state) {
+                case 0:
+                    if      (c == '+') state = 1;
+                    else if (c == '0') state = 2;
+                    else if (isNonSeparator(c)) return false;
+                break;
+
+                case 2:
+                    if      (c == '0') state = 3;
+                    else if (c == '1') state = 4;
+                    else if (isNonSeparator(c)) return false;
+                break;
+
+                case 4:
+                    if      (c == '1') state = 5;
+                    else if (isNonSeparator(c)) return false;
+                break;
+
+                case 1:
+                case 3:
+                case 5:
+                    if      (isISODigit(c)) state = 6;
+                    else if (isNonSeparator(c)) return false;
+                break;
+
+                case 6:
+                case 7:
+                    if      (isISODigit(c)) state++;
+                    else if (isNonSeparator(c)) return false;
+                break;
+
+                default:
+                    if (isNonSeparator(c)) return false;
+            }
+        }
+
+        return state == 6 || state == 7 || state == 8;
+    }
+}
@@ -0,0 +1,280 @@
+/*
+ * Copyright (C) 2021 The LineageOS Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.lineageos.lib.phone;
+
+import android.content.BroadcastReceiver;
+import android.content.Context;
+import android.content.Intent;
+import android.content.IntentFilter;
+import android.os.Handler;
+import android.telephony.ServiceState;
+import android.telephony.SubscriptionInfo;
+import android.telephony.SubscriptionManager;
+import android.telephony.TelephonyCallback;
+import android.telephony.TelephonyManager;
+import android.text.TextUtils;
+import android.util.Log;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.concurrent.Executor;
+
+/**
+ * Keeps track of the MCCs sensitive numbers have to be checked against.
+ *
+ * Resolving the MCCs takes several binder calls, so the result is computed once and kept
+ * up to date from subscription, default subscription and service state changes. Readers
+ * only ever see an immutable snapshot and never make a binder call themselves, unless
+ * they ask for a subscription that is not active. The MCCs of a few such subscriptions are
+ * remembered until the next change.
+ */
+final class MccTracker {
+    private static final String TAG = "MccTracker";
+
+    // Subscriptions that are not active, whose MCCs are remembered at most
+    private static final int MAX_INACTIVE_SUBS = 4;
+
+    private final Context mContext;
+    private final SubscriptionManager mSubscriptionManager;
+    private final TelephonyManager mTelephonyManager;
+    private final Handler mHandler;
+    private final Executor mExecutor;
+
+    private final HashMap<Integer, ServiceStateCallback> mServiceStateCallbacks =
+            new HashMap<>();
+
+    private volatile State mState;
+
+    /**
+     * Immutable set of MCCs, as published to readers.
+     */
+    private static final class State {
+        final int defaultSubId;
+        final List<String> subscriptionMccs;
+        // Active subscriptions only
+        final HashMap<Integer, List<String>> mccsForSub;
+        // In the order they were asked for first
+        final LinkedHashMap<Integer, List<String>> mccsForInactiveSub;
+
+        State(int defaultSubId, List<String> subscriptionMccs,
+                HashMap<Integer, List<String>> mccsForSub,
+                LinkedHashMap<Integer, List<String>> mccsForInactiveSub) {
+            this.defaultSubId = defaultSubId;
+            this.subscriptionMccs = subscriptionMccs;
+            this.mccsForSub = mccsForSub;
+            this.mccsForInactiveSub = mccsForInactiveSub;
+        }
+    }
+
+    private final SubscriptionManager.OnSubscriptionsChangedListener mSubscriptionsListener =
+            new SubscriptionManager.OnSubscriptionsChangedListener() {
+        @Override
+        public void onSubscriptionsChanged() {
+            refresh();
+        }
+    };
+
+    private final BroadcastReceiver mReceiver = new BroadcastReceiver() {
+        @Override
+        public void onReceive(Context context, Intent intent) {
+            refresh();
+        }
+    };
+
+    private final class ServiceStateCallback extends TelephonyCallback
+            implements TelephonyCallback.ServiceStateListener {
+        private final int mSubId;
+
+        ServiceStateCallback(int subId) {
+            mSubId = subId;
+        }
+
+        @Override
+        public void onServiceStateChanged(ServiceState serviceState) {
+            updateSubscription(mSubId);
+        }
+    }
+
+    MccTracker(Context context, Handler handler) {
+        mContext = context.getApplicationContext();
+        mSubscriptionManager = mContext.getSystemService(SubscriptionManager.class);
+        mTelephonyManager = mContext.getSystemService(TelephonyManager.class);
+
+        mHandler = handler;
+        mExecutor = mHandler::post;
+
+        mState = computeState();
+    }
+
+    /**
+     * Starts following subscription changes. Only called once the tracker is published.
+     */
+    void startTracking() {
+        mHandler.post(this::registerListeners);
+    }
+
+    /**
+     * @return the MCCs to check a number against, in the order they should be tried
+     */
+    List<String> getMccs(int subId) {
+        State state = mState;
+        if (subId == SubscriptionManager.INVALID_SUBSCRIPTION_ID) {
+            subId = state.defaultSubId;
+        }
+        List<String> mccs = state.mccsForSub.get(subId);
+        if (mccs == null) {
+            mccs = state.mccsForInactiveSub.get(subId);
+        }
+        if (mccs == null) {
+            // Not an active subscription, resolve it once and remember it until the next change
+            mccs = computeMccs(state.subscriptionMccs, subId);
+            putInactiveMccs(subId, mccs);
+        }
+        return mccs;
+    }
+
+    private void registerListeners() {
+        mSubscriptionManager.addOnSubscriptionsChangedListener(mExecutor, mSubscriptionsListener);
+        IntentFilter filter = new IntentFilter(
+                SubscriptionManager.ACTION_DEFAULT_SUBSCRIPTION_CHANGED);
+        filter.addAction(TelephonyManager.ACTION_SUBSCRIPTION_CARRIER_IDENTITY_CHANGED);
+        mContext.registerReceiver(mReceiver, filter, null, mHandler);
+        updateServiceStateCallbacks();
+    }
+
+    private void refresh() {
+        mHandler.post(() -> {
+            State state = computeState();
+            synchronized (this) {
+                mState = state;
+            }
+            updateServiceStateCallbacks();
+        });
+    }
+
+    private void updateSubscription(int subId) {
+        putMccs(subId, computeMccs(mState.subscriptionMccs, subId));
+    }
+
+    private synchronized void putMccs(int subId, List<String> mccs) {
+        // Copy on write, readers keep using the snapshot they already have
+        State current = mState;
+        HashMap<Integer, List<String>> mccsForSub = new HashMap<>(current.mccsForSub);
+        mccsForSub.put(subId, mccs);
+        mState = new State(current.defaultSubId, current.subscriptionMccs, mccsForSub,
+                current.mccsForInactiveSub);
+    }
+
+    private synchronized void putInactiveMccs(int subId, List<String> mccs) {
+        State current = mState;
+        if (current.mccsForSub.containsKey(subId)) {
+            // Became active meanwhile
+            return;
+        }
+        LinkedHashMap<Integer, List<String>> mccsForInactiveSub =
+                new LinkedHashMap<>(current.mccsForInactiveSub);
+        mccsForInactiveSub.put(subId, mccs);
+        // Bounded, callers may ask for any number of subscriptions between two changes
+        Iterator<Integer> eldest = mccsForInactiveSub.keySet().iterator();
+        while (mccsForInactiveSub.size() > MAX_INACTIVE_SUBS) {
+            eldest.next();
+            eldest.remove();
+        }
+        mState = new State(current.defaultSubId, current.subscriptionMccs, current.mccsForSub,
+                mccsForInactiveSub);
+    }
+
+    private void updateServiceStateCallbacks() {
+        State state = mState;
+        ArrayList<Integer> stale = new ArrayList<>(mServiceStateCallbacks.keySet());
+        for (Integer subId : state.mccsForSub.keySet()) {
+            stale.remove(subId);
+            if (mServiceStateCallbacks.containsKey(subId)
+                    || !SubscriptionManager.isValidSubscriptionId(subId)) {
+                continue;
+            }
+            ServiceStateCallback callback = new ServiceStateCallback(subId);
+            try {
+                mTelephonyManager.createForSubscriptionId(subId)
+                        .registerTelephonyCallback(mExecutor, callback);
+                mServiceStateCallbacks.put(subId, callback);
+            } catch (IllegalStateException | SecurityException e) {
+                Log.w(TAG, "Can not listen to service state of sub " + subId, e);
+            }
+        }
+        for (Integer subId : stale) {
+            mTelephonyManager.unregisterTelephonyCallback(mServiceStateCallbacks.remove(subId));
+        }
+    }
+
+    private State computeState() {
+        ArrayList<String> subscriptionMccs = new ArrayList<>();
+        ArrayList<Integer> subIds = new ArrayList<>();
+        List<SubscriptionInfo> list = mSubscriptionManager.getActiveSubscriptionInfoList();
+        if (list != null) {
+            // Test all subscriptions so an accidential use of a wrong sim also hides the number
+            for (SubscriptionInfo subInfo : list) {
+                addMcc(subscriptionMccs, String.valueOf(subInfo.getMcc()));
+                subIds.add(subInfo.getSubscriptionId());
+            }
+        }
+
+        int defaultSubId = SubscriptionManager.getDefaultSubscriptionId();
+        if (!subIds.contains(defaultSubId)) {
+            subIds.add(defaultSubId);
+        }
+
+        List<String> unmodifiableSubscriptionMccs = Collections.unmodifiableList(subscriptionMccs);
+        HashMap<Integer, List<String>> mccsForSub = new HashMap<>();
+        for (int subId : subIds) {
+            mccsForSub.put(subId, computeMccs(unmodifiableSubscriptionMccs, subId));
+        }
+        return new State(defaultSubId, unmodifiableSubscriptionMccs, mccsForSub,
+                new LinkedHashMap<Integer, List<String>>());
+    }
+
+    private List<String> computeMccs(List<String> subscriptionMccs, int subId) {
+        ArrayList<String> mccs = new ArrayList<>(subscriptionMccs);
+
+        // Fall back to check with the passed subId
+        TelephonyManager telephonyManager = mTelephonyManager.createForSubscriptionId(subId);
+        String networkUsed = telephonyManager.getNetworkOperator();
+        if (!TextUtils.isEmpty(networkUsed)) {
+            addMcc(mccs, networkUsed.substring(0, 3));
+        }
+
+        // Also try the sim's operator
+        if (telephonyManager.getSimState() == TelephonyManager.SIM_STATE_READY) {
+            String simOperator = telephonyManager.getSimOperator();
+            if (!TextUtils.isEmpty(simOperator)) {
+                addMcc(mccs, simOperator.substring(0, 3));
+            }
+        }
+
+        return Collections.unmodifiableList(mccs);
+    }
+
+    private static void addMcc(List<String> mccs, String mcc) {
+        if (!mccs.contains(mcc)) {
+            mccs.add(mcc);
+        }
+    }
+}
@@ -0,0 +1,107 @@
+/*
+ * Copyright (C) 2021 The LineageOS Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.lineageos.lib.phone;
+
+import com.google.i18n.phonenumbers.NumberParseException;
+import com.google.i18n.phonenumbers.Phonenumber;
+import com.google.i18n.phonenumbers.PhoneNumberUtil;
+import com.google.i18n.phonenumbers.PhoneNumberUtil.PhoneNumberFormat;
+
+import java.io.PrintWriter;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Objects;
+
+/**
+ * Bounded LRU cache of raw numbers formatted to their national representation.
+ *
+ * All cached entries belong to a single country ISO; switching the country drops them,
+ * so every entry is effectively keyed by (raw number, country ISO).
+ */
+final class NationalNumberCache {
+    private final int mMaxSize;
+    private final LinkedHashMap<String, String> mCache;
+
+    private String mCountryIso;
+    private long mHitCount;
+    private long mMissCount;
+
+    NationalNumberCache(int maxSize) {
+        mMaxSize = maxSize;
+        mCache = new LinkedHashMap<String, String>(16, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<String, String> eldest) {
+                return size() > mMaxSize;
+            }
+        };
+    }
+
+    String format(String number, String countryIso) {
+        if (number == null) {
+            return null;
+        }
+        synchronized (this) {
+            if (!Objects.equals(mCountryIso, countryIso)) {
+                mCache.clear();
+                mCountryIso = countryIso;
+            }
+            String national = mCache.get(number);
+            if (national != null) {
+                mHitCount++;
+                return national;
+            }
+            mMissCount++;
+        }
+
+        // Parse outside the lock, libphonenumber is by far the most expensive part
+        String national = formatNumberToNational(PhoneNumberUtil.getInstance(), countryIso, number);
+        if (national != null) {
+            synchronized (this) {
+                if (Objects.equals(mCountryIso, countryIso)) {
+                    mCache.put(number, national);
+                }
+            }
+        }
+        return national;
+    }
+
+    synchronized void clear() {
+        mCache.clear();
+    }
+
+    synchronized void dump(PrintWriter pw, String prefix) {
+        long lookups = mHitCount + mMissCount;
+        pw.println(prefix + "countryIso=" + mCountryIso + " size=" + mCache.size() + "/"
+                + mMaxSize + " hits=" + mHitCount + " misses=" + mMissCount
+                + " hitRate=" + (lookups > 0 ? mHitCount * 100 / lookups : 0) + "%");
+    }
+
+    static String formatNumberToNational(PhoneNumberUtil util, String countryIso,
+            String number) {
+        Phonenumber.PhoneNumber pn = null;
+        try {
+            pn = util.parse(number, countryIso);
+        } catch (NumberParseException e) {
+        }
+
+        if (pn != null) {
+            return util.format(pn, PhoneNumberFormat.NATIONAL);
+        } else {
+            return number;
+        }
+    }
+}
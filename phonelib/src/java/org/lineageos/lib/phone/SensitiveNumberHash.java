@@ -0,0 +1,201 @@
+/*
+ * Copyright (C) 2021 The LineageOS Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.lineageos.lib.phone;
+
+import android.telephony.PhoneNumberUtils;
+
+/**
+ * Open-addressed hash over the numbers of one sensitive numbers list.
+ *
+ * {@link PhoneNumberUtils#compare} ignores everything from the first pause or wait
+ * character on, and matches two numbers when the last "min match" dialable characters
+ * before it agree, or when both are shorter and identical. The min match is configurable
+ * per device through {@code config_phonenumber_compare_min_match}. Numbers are therefore
+ * keyed by that normalized suffix; the few numbers sharing a key are verified with
+ * {@code compare} itself, so a lookup gives exactly the same answer as a linear scan.
+ *
+ * The wild card 'N' matches any character, numbers containing it in their suffix can
+ * only be matched by a linear scan. The same goes for all numbers on devices configured
+ * for strict comparison, whose rules the keys don't follow.
+ */
+final class SensitiveNumberHash {
+    // Default of config_phonenumber_compare_min_match, PhoneNumberUtils.MIN_MATCH
+    static final int DEFAULT_MIN_MATCH = 7;
+
+    // Longest suffix that fits a key, a longer min match is keyed by this many characters,
+    // which still puts all matching numbers under the same key
+    private static final int MAX_KEY_LENGTH = 16;
+    private static final int SYMBOL_COUNT = 13;
+    private static final int SYMBOL_WILD = -2;
+
+    private static final long NO_KEY = 0;
+    private static final long WILD_KEY = -1;
+
+    private final String[] mNumbers;
+    private final long[] mKeys;
+    private final int[] mFirst;
+    private final int[] mNext;
+    private final int[] mUnkeyed;
+    private final int mMask;
+    private final int mKeyLength;
+    private final boolean mStrict;
+
+    /**
+     * @param minMatch the min match of {@link PhoneNumberUtils#compare}
+     * @param strict whether the device is configured for strict comparison
+     */
+    SensitiveNumberHash(String[] numbers, int minMatch, boolean strict) {
+        mNumbers = numbers;
+        mKeyLength = Math.max(1, Math.min(minMatch, MAX_KEY_LENGTH));
+        mStrict = strict;
+        mNext = new int[numbers.length];
+
+        int capacity = Integer.highestOneBit(Math.max(numbers.length, 1) * 2 - 1) << 1;
+        mMask = capacity - 1;
+        mKeys = new long[capacity];
+        mFirst = new int[capacity];
+
+        int unkeyedCount = 0;
+        int[] unkeyed = new int[numbers.length];
+        // Insert backwards so every chain lists its numbers in file order
+        for (int i = numbers.length - 1; i >= 0; i--) {
+            long key = strict ? NO_KEY : keyOf(numbers[i], mKeyLength);
+            if (key == NO_KEY || key == WILD_KEY) {
+                unkeyed[unkeyedCount++] = i;
+                continue;
+            }
+            int slot = slotOf(key);
+            if (mKeys[slot] == NO_KEY) {
+                mKeys[slot] = key;
+                mNext[i] = -1;
+            } else {
+                mNext[i] = mFirst[slot];
+            }
+            mFirst[slot] = i;
+        }
+        mUnkeyed = new int[unkeyedCount];
+        System.arraycopy(unkeyed, 0, mUnkeyed, 0, unkeyedCount);
+    }
+
+    /**
+     * @return the position of a number matching the given one, or -1 if there is none
+     */
+    int find(String number) {
+        long key = mStrict ? WILD_KEY : keyOf(number, mKeyLength);
+        if (key == WILD_KEY) {
+            for (int i = 0; i < mNumbers.length; i++) {
+                if (PhoneNumberUtils.compare(number, mNumbers[i])) {
+                    return i;
+                }
+            }
+            return -1;
+        }
+        if (key != NO_KEY) {
+            int slot = slotOf(key);
+            if (mKeys[slot] == key) {
+                for (int i = mFirst[slot]; i >= 0; i = mNext[i]) {
+                    if (PhoneNumberUtils.compare(number, mNumbers[i])) {
+                        return i;
+                    }
+                }
+            }
+        }
+        // Numbers without any dialable characters or with a wild card can only be matched
+        // the slow way
+        for (int i : mUnkeyed) {
+            if (PhoneNumberUtils.compare(number, mNumbers[i])) {
+                return i;
+            }
+        }
+        return -1;
+    }
+
+    private int slotOf(long key) {
+        int slot = mix(key) & mMask;
+        while (mKeys[slot] != NO_KEY && mKeys[slot] != key) {
+            slot = (slot + 1) & mMask;
+        }
+        return slot;
+    }
+
+    private static int mix(long key) {
+        long h = key * 0x9e3779b97f4a7c15L;
+        return (int) (h ^ (h >>> 32));
+    }
+
+    /**
+     * Packs the last dialable characters of a number, as {@link PhoneNumberUtils#compare}
+     * sees them, into a long. Like compare, this ignores the post-dial part from the first
+     * pause or wait character on. A leading 1 keeps short numbers with leading zeroes
+     * distinct.
+     *
+     * @return the key, {@link #NO_KEY} if the number contains no dialable characters or
+     *         {@link #WILD_KEY} if the suffix contains the wild card
+     */
+    static long keyOf(CharSequence number, int keyLength) {
+        if (number == null) {
+            return NO_KEY;
+        }
+        int end = number.length();
+        for (int i = 0; i < end; i++) {
+            char c = number.charAt(i);
+            if (c == PhoneNumberUtils.PAUSE || c == PhoneNumberUtils.WAIT) {
+                end = i;
+                break;
+            }
+        }
+        long key = 1;
+        int count = 0;
+        for (int i = end - 1; i >= 0 && count < keyLength; i--) {
+            int symbol = symbolOf(number.charAt(i));
+            if (symbol == SYMBOL_WILD) {
+                return WILD_KEY;
+            } else if (symbol >= 0) {
+                key = key * SYMBOL_COUNT + symbol;
+                count++;
+            }
+        }
+        return count > 0 ? key : NO_KEY;
+    }
+
+    /**
+     * @return the symbol of a character {@link PhoneNumberUtils#compare} considers
+     *         dialable, {@link #SYMBOL_WILD} for the wild card or -1 for anything else
+     */
+    private static int symbolOf(char c) {
+        if (c == '+') {
+            return 12;
+        } else if (c == 'N') {
+            return SYMBOL_WILD;
+        }
+        return digitOf(c);
+    }
+
+    /**
+     * @return the value of a digit, '*' or '#', or -1 for anything else
+     */
+    static int digitOf(char c) {
+        if (c >= '0' && c <= '9') {
+            return c - '0';
+        } else if (c == '*') {
+            return 10;
+        } else if (c == '#') {
+            return 11;
+        }
+        return -1;
+    }
+}
@@ -0,0 +1,355 @@
+/*
+ * Copyright (C) 2021 The LineageOS Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.lineageos.lib.phone;
+
+import android.telephony.PhoneNumberUtils;
+
+import com.google.i18n.phonenumbers.PhoneNumberUtil;
+
+/**
+ * Digit trie over the numbers of one sensitive numbers list.
+ *
+ * A single pass over the digits of a number finds an exact match as well as the longest
+ * list number the given number starts with. Nodes are stored as first-child/next-sibling
+ * arrays, so the trie stays small even for lists with many long numbers, and lookups do
+ * not allocate.
+ *
+ * Numbers are normalized like {@link PhoneNumberUtils#compare} sees them: the post-dial
+ * part from the first pause or wait character on is ignored, and an international prefix
+ * with a known country code or a trunk prefix is skipped when at least "min match" digits
+ * follow it. So "+49 30 1234567", "0049 30 1234567" and "030 1234567" are the same number,
+ * while "+43 30 1234567", "+49 116117" and "116117" are not, as for compare. Anything else,
+ * including '+', is matched as it is.
+ */
+final class SensitiveNumberTrie {
+    // Backing values of the public SensitivePhoneNumbers constants, kept here so the
+    // trie does not depend on the Android-facing class
+    static final int MATCH_EXACT = 1 << 0;
+    static final int MATCH_PREFIX = 1 << 1;
+    static final int MATCH_SHORT_CODE = 1 << 2;
+    static final int CATEGORY_ALL = 0xffffffff;
+
+    /** Longest number that is still considered a short code */
+    static final int SHORT_CODE_MAX_LENGTH = 6;
+
+    private static final int NONE = -1;
+    private static final int SYMBOL_PLUS = 12;
+
+    // Region of calling codes libphonenumber does not know
+    private static final String UNKNOWN_REGION = "ZZ";
+    private static final int MAX_COUNTRY_CODE_LENGTH = 3;
+    // Country code of numbers written without one
+    private static final int NO_COUNTRY_CODE = 0;
+
+    private final int[] mFirstChild;
+    private final int[] mNextSibling;
+    private final byte[] mSymbol;
+    private final int[] mFirstItem;
+    private final int[] mNextItem;
+    private final int[] mCategories;
+    private final int[] mLengths;
+    private final int[] mCountryCodes;
+    private int mNodeCount;
+
+    SensitiveNumberTrie(String[] numbers, String[] categories) {
+        int maxNodes = 1;
+        for (String number : numbers) {
+            maxNodes += number != null ? number.length() : 0;
+        }
+        mFirstChild = new int[maxNodes];
+        mNextSibling = new int[maxNodes];
+        mSymbol = new byte[maxNodes];
+        mFirstItem = new int[maxNodes];
+        mNextItem = new int[numbers.length];
+        mCategories = new int[numbers.length];
+        mLengths = new int[numbers.length];
+        mCountryCodes = new int[numbers.length];
+        newNode((byte) 0);
+
+        // Insert backwards so the items of a node are chained in file order
+        for (int i = numbers.length - 1; i >= 0; i--) {
+            mCategories[i] = parseCategories(categories[i]);
+            mNextItem[i] = NONE;
+            if (numbers[i] == null) {
+                continue;
+            }
+            int node = 0;
+            int length = 0;
+            int end = endOf(numbers[i]);
+            long prefix = prefixOf(numbers[i], end);
+            for (int j = startOf(prefix); j < end; j++) {
+                int symbol = symbolOf(numbers[i].charAt(j));
+                if (symbol >= 0) {
+                    node = getOrAddChild(node, (byte) symbol);
+                    length++;
+                }
+            }
+            if (length == 0) {
+                // Nothing to match on
+                continue;
+            }
+            mLengths[i] = length;
+            mCountryCodes[i] = countryCodeOf(prefix);
+            mNextItem[i] = mFirstItem[node];
+            mFirstItem[node] = i;
+        }
+    }
+
+    /**
+     * Finds the list number matching the given one.
+     *
+     * An exact match is preferred over the longest list number the given number starts with.
+     *
+     * @param matchFlags combination of {@link #MATCH_EXACT}, {@link #MATCH_PREFIX} and
+     *        {@link #MATCH_SHORT_CODE}
+     * @param categoryMask bit mask of the categories to consider, or {@link #CATEGORY_ALL}
+     * @return the position of the matching number, or -1 if there is none
+     */
+    int find(CharSequence number, int matchFlags, int categoryMask) {
+        int prefixMaxLength = 0;
+        if ((matchFlags & MATCH_PREFIX) != 0) {
+            prefixMaxLength = Integer.MAX_VALUE;
+        } else if ((matchFlags & MATCH_SHORT_CODE) != 0) {
+            prefixMaxLength = SHORT_CODE_MAX_LENGTH;
+        }
+
+        int node = 0;
+        int prefixMatch = NONE;
+        int end = endOf(number);
+        long prefix = prefixOf(number, end);
+        int countryCode = countryCodeOf(prefix);
+        for (int i = startOf(prefix); i < end && node != NONE; i++) {
+            int symbol = symbolOf(number.charAt(i));
+            if (symbol < 0) {
+                continue;
+            }
+            // Every list number ending before the last symbol is a prefix of the number
+            if (node != 0 && prefixMaxLength > 0) {
+                int match = findItem(node, categoryMask, prefixMaxLength, countryCode);
+                if (match != NONE) {
+                    prefixMatch = match;
+                }
+            }
+            node = getChild(node, (byte) symbol);
+        }
+
+        if (node > 0 && (matchFlags & MATCH_EXACT) != 0) {
+            int match = findItem(node, categoryMask, Integer.MAX_VALUE, countryCode);
+            if (match != NONE) {
+                return match;
+            }
+        }
+        return prefixMatch;
+    }
+
+    /**
+     * @return the index of the first pause or wait character, or the length of the number
+     */
+    static int endOf(CharSequence number) {
+        for (int i = 0; i < number.length(); i++) {
+            char c = number.charAt(i);
+            if (c == PhoneNumberUtils.PAUSE || c == PhoneNumberUtils.WAIT) {
+                return i;
+            }
+        }
+        return number.length();
+    }
+
+    /**
+     * Finds the international prefix and country code or the trunk prefix of a number.
+     *
+     * @return the index of the first character after it, or 0 if there is none or fewer
+     *         than "min match" digits follow it, packed with the country code, see
+     *         {@link #startOf} and {@link #countryCodeOf}
+     */
+    static long prefixOf(CharSequence number, int end) {
+        int first = nextSymbol(number, 0, end);
+        if (first >= end) {
+            return 0;
+        }
+        long prefix;
+        if (number.charAt(first) == '+') {
+            prefix = skipCountryCode(number, first + 1, end);
+        } else if (number.charAt(first) != '0') {
+            return 0;
+        } else {
+            int second = nextDigit(number, first + 1, end);
+            int third = nextDigit(number, second + 1, end);
+            if (second < end && number.charAt(second) == '0') {
+                // 00
+                prefix = skipCountryCode(number, second + 1, end);
+            } else if (third < end && number.charAt(second) == '1'
+                    && number.charAt(third) == '1') {
+                // 011
+                prefix = skipCountryCode(number, third + 1, end);
+            } else {
+                // Trunk prefix
+                prefix = first + 1;
+            }
+        }
+        if (prefix < 0) {
+            // Unknown country code, compare would only match it literally
+            return 0;
+        }
+
+        int digits = 0;
+        for (int i = startOf(prefix); i < end; i++) {
+            if (SensitiveNumberHash.digitOf(number.charAt(i)) >= 0) {
+                digits++;
+            }
+        }
+        return digits >= SensitiveNumberHash.DEFAULT_MIN_MATCH ? prefix : 0;
+    }
+
+    static int startOf(long prefix) {
+        return (int) prefix;
+    }
+
+    static int countryCodeOf(long prefix) {
+        return (int) (prefix >>> 32);
+    }
+
+    /**
+     * @return the index after the country code starting at the given index packed with the
+     *         country code, or -1 if libphonenumber knows no such country code
+     */
+    private static long skipCountryCode(CharSequence number, int start, int end) {
+        PhoneNumberUtil util = PhoneNumberUtil.getInstance();
+        int countryCode = 0;
+        int i = start;
+        for (int length = 1; length <= MAX_COUNTRY_CODE_LENGTH; length++) {
+            i = nextDigit(number, i, end);
+            if (i >= end) {
+                break;
+            }
+            countryCode = countryCode * 10 + (number.charAt(i) - '0');
+            i++;
+            // Country codes are prefix free, the first known one is it
+            if (!UNKNOWN_REGION.equals(util.getRegionCodeForCountryCode(countryCode))) {
+                return ((long) countryCode << 32) | i;
+            }
+        }
+        return -1;
+    }
+
+    /**
+     * @return the index of the next digit, '*', '#' or '+', or end if there is none
+     */
+    private static int nextSymbol(CharSequence number, int start, int end) {
+        for (int i = start; i < end; i++) {
+            char c = number.charAt(i);
+            if (c == '+' || SensitiveNumberHash.digitOf(c) >= 0) {
+                return i;
+            }
+        }
+        return end;
+    }
+
+    /**
+     * @return the index of the next of the digits 0 to 9, or end if there is none
+     */
+    private static int nextDigit(CharSequence number, int start, int end) {
+        for (int i = start; i < end; i++) {
+            char c = number.charAt(i);
+            if (c >= '0' && c <= '9') {
+                return i;
+            }
+        }
+        return end;
+    }
+
+    private int findItem(int node, int categoryMask, int maxLength, int countryCode) {
+        for (int i = mFirstItem[node]; i != NONE; i = mNextItem[i]) {
+            if (mLengths[i] <= maxLength && (categoryMask == CATEGORY_ALL
+                    || (mCategories[i] & categoryMask) != 0)
+                    && isSameCountry(mCountryCodes[i], countryCode)) {
+                return i;
+            }
+        }
+        return NONE;
+    }
+
+    /**
+     * Like compare, a number without a country code matches one with any country code.
+     */
+    private static boolean isSameCountry(int countryCode, int otherCountryCode) {
+        return countryCode == NO_COUNTRY_CODE || otherCountryCode == NO_COUNTRY_CODE
+                || countryCode == otherCountryCode;
+    }
+
+    /**
+     * @return the symbol of a digit, '*', '#' or '+', or -1 for anything else
+     */
+    private static int symbolOf(char c) {
+        return c == '+' ? SYMBOL_PLUS : SensitiveNumberHash.digitOf(c);
+    }
+
+    private int getChild(int node, byte symbol) {
+        for (int child = mFirstChild[node]; child != NONE; child = mNextSibling[child]) {
+            if (mSymbol[child] == symbol) {
+                return child;
+            }
+        }
+        return NONE;
+    }
+
+    private int getOrAddChild(int node, byte symbol) {
+        int child = getChild(node, symbol);
+        if (child == NONE) {
+            child = newNode(symbol);
+            mNextSibling[child] = mFirstChild[node];
+            mFirstChild[node] = child;
+        }
+        return child;
+    }
+
+    private int newNode(byte symbol) {
+        int node = mNodeCount++;
+        mFirstChild[node] = NONE;
+        mNextSibling[node] = NONE;
+        mSymbol[node] = symbol;
+        mFirstItem[node] = NONE;
+        return node;
+    }
+
+    /**
+     * Turns a list of category numbers, e.g. "1,3", into a bit mask. Categories beyond the
+     * width of the mask and anything that is not a number are ignored.
+     */
+    static int parseCategories(String categories) {
+        if (categories == null) {
+            return 0;
+        }
+        int mask = 0;
+        int value = -1;
+        for (int i = 0; i <= categories.length(); i++) {
+            char c = i < categories.length() ? categories.charAt(i) : ',';
+            if (c >= '0' && c <= '9') {
+                value = (value < 0 ? 0 : value * 10) + (c - '0');
+                if (value >= Integer.SIZE) {
+                    value = Integer.SIZE;
+                }
+            } else {
+                if (value >= 0 && value < Integer.SIZE) {
+                    mask |= 1 << value;
+                }
+                value = -1;
+            }
+        }
+        return mask;
+    }
+}
@@ -0,0 +1,168 @@
+/*
+ * Copyright (C) 2021 The LineageOS Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.lineageos.lib.phone;
+
+import org.lineageos.lib.phone.spn.Item;
+
+import java.util.ArrayList;
+import java.util.BitSet;
+import java.util.HashMap;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+/**
+ * Immutable view of one loaded sensitive numbers list.
+ *
+ * A snapshot is fully built before it is published, so it can be read from any thread
+ * without locking. The per-list lookup structures are created lazily; racing threads may
+ * build the same structure twice, but only the first one is ever published.
+ */
+final class SensitiveNumbersSnapshot {
+    static final SensitiveNumbersSnapshot EMPTY = new SensitiveNumbersSnapshot(null,
+            SensitiveNumberHash.DEFAULT_MIN_MATCH, false);
+
+    private final SensitivePnIndex mIndex;
+    private final int mMinMatch;
+    private final boolean mStrict;
+    private final AtomicReferenceArray<SensitiveNumberHash> mNumberHashes;
+    private final AtomicReferenceArray<SensitiveNumberTrie> mNumberTries;
+    private final AtomicReferenceArray<AtomicReferenceArray<Item>> mItems;
+
+    /**
+     * @param minMatch the min match of {@link android.telephony.PhoneNumberUtils#compare}
+     * @param strict whether the device is configured for strict comparison
+     */
+    SensitiveNumbersSnapshot(SensitivePnIndex index, int minMatch, boolean strict) {
+        mIndex = index;
+        mMinMatch = minMatch;
+        mStrict = strict;
+        int listCount = index != null ? index.getListCount() : 0;
+        mNumberHashes = new AtomicReferenceArray<>(listCount);
+        mNumberTries = new AtomicReferenceArray<>(listCount);
+        mItems = new AtomicReferenceArray<>(listCount);
+    }
+
+    ArrayList<Item> getItems(String mcc) {
+        return mIndex != null ? mIndex.getItems(mcc) : new ArrayList<Item>();
+    }
+
+    boolean isSensitiveNumber(String number, String mcc) {
+        SensitiveNumberHash hash = getNumberHash(mcc);
+        return hash != null && hash.find(number) >= 0;
+    }
+
+    /**
+     * Checks a batch of raw numbers against the lists of the given MCCs, every distinct
+     * number only once, see {@link SensitivePhoneNumbers#isSensitiveNumbers}.
+     *
+     * @return a set with the bit of each sensitive number's position in the list set
+     */
+    BitSet isSensitiveNumbers(List<String> numbers, List<String> mccs,
+            NationalNumberCache nationalNumbers, String countryIso) {
+        BitSet result = new BitSet(numbers.size());
+        if (mccs.isEmpty()) {
+            return result;
+        }
+
+        HashMap<String, Boolean> checked = new HashMap<>();
+        for (int i = 0; i < numbers.size(); i++) {
+            String number = numbers.get(i);
+            if (number == null || number.isEmpty()) {
+                continue;
+            }
+            Boolean sensitive = checked.get(number);
+            if (sensitive == null) {
+                sensitive = false;
+                String nationalNumber = nationalNumbers.format(number, countryIso);
+                if (nationalNumber != null && !nationalNumber.isEmpty()) {
+                    for (String mcc : mccs) {
+                        if (isSensitiveNumber(nationalNumber, mcc)) {
+                            sensitive = true;
+                            break;
+                        }
+                    }
+                }
+                checked.put(number, sensitive);
+            }
+            if (sensitive) {
+                result.set(i);
+            }
+        }
+        return result;
+    }
+
+    /**
+     * @return the item matching the given number, see {@link SensitiveNumberTrie#find}
+     */
+    Item findItem(String number, String mcc, int matchFlags, int categoryMask) {
+        int list = mIndex != null ? mIndex.getListForMcc(mcc) : -1;
+        if (list < 0) {
+            return null;
+        }
+        SensitiveNumberTrie trie = mNumberTries.get(list);
+        if (trie == null) {
+            int count = mIndex.getItemCount(list);
+            String[] numbers = new String[count];
+            String[] categories = new String[count];
+            for (int i = 0; i < count; i++) {
+                numbers[i] = mIndex.getNumber(list, i);
+                categories[i] = mIndex.getField(list, i, SensitivePnIndex.FIELD_CATEGORIES);
+            }
+            mNumberTries.compareAndSet(list, null, new SensitiveNumberTrie(numbers, categories));
+            trie = mNumberTries.get(list);
+        }
+        int position = trie.find(number, matchFlags, categoryMask);
+        return position >= 0 ? getItem(list, position) : null;
+    }
+
+    /**
+     * Returns a shared instance of the item, so repeated lookups do not allocate.
+     */
+    private Item getItem(int list, int position) {
+        AtomicReferenceArray<Item> items = mItems.get(list);
+        if (items == null) {
+            mItems.compareAndSet(list, null,
+                    new AtomicReferenceArray<Item>(mIndex.getItemCount(list)));
+            items = mItems.get(list);
+        }
+        Item item = items.get(position);
+        if (item == null) {
+            items.compareAndSet(position, null, mIndex.getItem(list, position));
+            item = items.get(position);
+        }
+        return item;
+    }
+
+    private SensitiveNumberHash getNumberHash(String mcc) {
+        int list = mIndex != null ? mIndex.getListForMcc(mcc) : -1;
+        if (list < 0) {
+            return null;
+        }
+        // Lists are shared by all MCCs of an entry, so build each hash only once
+        SensitiveNumberHash hash = mNumberHashes.get(list);
+        if (hash == null) {
+            String[] numbers = new String[mIndex.getItemCount(list)];
+            for (int i = 0; i < numbers.length; i++) {
+                numbers[i] = mIndex.getNumber(list, i);
+            }
+            mNumberHashes.compareAndSet(list, null,
+                    new SensitiveNumberHash(numbers, mMinMatch, mStrict));
+            hash = mNumberHashes.get(list);
+        }
+        return hash;
+    }
+}
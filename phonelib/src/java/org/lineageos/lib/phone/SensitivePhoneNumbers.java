@@ -17,25 +17,19 @@
 
 package org.lineageos.lib.phone;
 
+import android.content.ComponentCallbacks;
 import android.content.Context;
+import android.content.res.Configuration;
+import android.content.res.Resources;
 import android.os.Environment;
-import android.telephony.PhoneNumberUtils;
-import android.telephony.SubscriptionInfo;
-import android.telephony.SubscriptionManager;
-import android.telephony.TelephonyManager;
+import android.os.FileObserver;
+import android.os.Handler;
+import android.os.HandlerThread;
 import android.text.TextUtils;
 import android.util.Log;
 import android.util.Xml;
 
-import com.google.i18n.phonenumbers.NumberParseException;
-import com.google.i18n.phonenumbers.Phonenumber;
-import com.google.i18n.phonenumbers.PhoneNumberUtil;
-import com.google.i18n.phonenumbers.PhoneNumberUtil.PhoneNumberFormat;
-
 import org.lineageos.lib.phone.spn.Item;
-import org.lineageos.lib.phone.spn.SensitivePN;
-import org.lineageos.lib.phone.spn.SensitivePNS;
-import org.lineageos.lib.phone.spn.XmlParser;
 
 import org.xmlpull.v1.XmlPullParserException;
 
@@ -43,65 +37,260 @@ import java.io.File;
 import java.io.FileInputStream;
 import java.io.FileNotFoundException;
 import java.io.IOException;
+import java.io.PrintWriter;
+import java.nio.ByteBuffer;
 import java.util.ArrayList;
-import java.util.HashMap;
+import java.util.BitSet;
 import java.util.List;
 import java.util.Locale;
-
-import javax.xml.datatype.DatatypeConfigurationException;
+import java.util.concurrent.atomic.AtomicReference;
 
 public class SensitivePhoneNumbers {
     private final String LOG_TAG = this.getClass().getSimpleName();
 
     public static final String SENSIBLE_PHONENUMBERS_FILE_PATH = "/product/etc/sensitive_pn.xml";
+    private static final String SENSIBLE_PHONENUMBERS_FILE_NAME = "sensitive_pn.xml";
+    // All lists that are merged, from the highest to the lowest priority
+    private static final String[] SENSIBLE_PHONENUMBERS_FILE_PATHS = {
+        SENSIBLE_PHONENUMBERS_FILE_PATH,
+        "/odm/etc/" + SENSIBLE_PHONENUMBERS_FILE_NAME,
+        "/vendor/etc/" + SENSIBLE_PHONENUMBERS_FILE_NAME,
+    };
+    /** Match list numbers equal to the checked number */
+    public static final int MATCH_EXACT = SensitiveNumberTrie.MATCH_EXACT;
+    /** Match list numbers the checked number starts with, e.g. hotlines with an extension */
+    public static final int MATCH_PREFIX = SensitiveNumberTrie.MATCH_PREFIX;
+    /** Like {@link #MATCH_PREFIX}, but only for short codes of up to six digits */
+    public static final int MATCH_SHORT_CODE = SensitiveNumberTrie.MATCH_SHORT_CODE;
+
+    /** Category mask matching items of any category, including items without one */
+    public static final int CATEGORY_ALL = SensitiveNumberTrie.CATEGORY_ALL;
+
+    private static final String SENSIBLE_PHONENUMBERS_INDEX_NAME = "sensitive_pn.idx";
+    private static final int NATIONAL_NUMBER_CACHE_SIZE = 512;
+    private static final int LIST_OBSERVER_MASK = FileObserver.CLOSE_WRITE
+            | FileObserver.MOVED_TO | FileObserver.MOVED_FROM
+            | FileObserver.CREATE | FileObserver.DELETE;
+    private static final long RELOAD_DELAY_MS = 1000;
     private static final String ns = null;
 
-    private static SensitivePhoneNumbers sInstance = null;
-    private static boolean sNumbersLoaded;
+    private final Object mLoadLock = new Object();
+    private volatile SensitiveNumbersSnapshot mSnapshot;
+    private volatile File mIndexDir;
+    // Built before any caller provided a context, written once one does
+    private ByteBuffer mPendingIndex;
+    private FileObserver mListObserver;
+    private Handler mBackgroundHandler;
 
-    private HashMap<String, ArrayList<Item>> mSensitiveNumbersMap = new HashMap<>();
+    private final NationalNumberCache mNationalNumbers =
+            new NationalNumberCache(NATIONAL_NUMBER_CACHE_SIZE);
+    private volatile String mCountryIso;
+    private final AtomicReference<MccTracker> mMccTracker = new AtomicReference<>();
 
     private SensitivePhoneNumbers() { }
 
+    // Initialization-on-demand holder, the JVM guarantees a single, safely published instance
+    private static class Holder {
+        static final SensitivePhoneNumbers INSTANCE = new SensitivePhoneNumbers();
+    }
+
     public static SensitivePhoneNumbers getInstance() {
-        if (sInstance == null) {
-            sInstance = new SensitivePhoneNumbers();
+        return Holder.INSTANCE;
+    }
+
+    private SensitiveNumbersSnapshot loadSensiblePhoneNumbers(Context context) {
+        if (mIndexDir == null && context != null) {
+            mIndexDir = context.getApplicationContext().getCodeCacheDir();
+            writePendingIndex();
+        }
+
+        // Lock-free fast path once the numbers are loaded
+        SensitiveNumbersSnapshot snapshot = mSnapshot;
+        if (snapshot != null) {
+            return snapshot;
+        }
+
+        synchronized (mLoadLock) {
+            if (mSnapshot == null) {
+                mSnapshot = newSnapshot();
+                startWatchingLists();
+            }
+            return mSnapshot;
         }
-        return sInstance;
     }
 
-    private void loadSensiblePhoneNumbers() {
-        if (sNumbersLoaded) {
+    private void startWatchingLists() {
+        ArrayList<File> dirs = new ArrayList<>();
+        for (String path : SENSIBLE_PHONENUMBERS_FILE_PATHS) {
+            File dir = new File(path).getParentFile();
+            if (dir.isDirectory() && !dirs.contains(dir)) {
+                dirs.add(dir);
+            }
+        }
+        if (dirs.isEmpty()) {
             return;
         }
+        mListObserver = new FileObserver(dirs, LIST_OBSERVER_MASK) {
+            @Override
+            public void onEvent(int event, String path) {
+                if (!SENSIBLE_PHONENUMBERS_FILE_NAME.equals(path)) {
+                    return;
+                }
+                // Updates usually come as a burst of events, only reload once they settled
+                Handler handler = getBackgroundHandler();
+                handler.removeCallbacks(mReloadRunnable);
+                handler.postDelayed(mReloadRunnable, RELOAD_DELAY_MS);
+            }
+        };
+        mListObserver.startWatching();
+    }
 
-        File sensiblePNFile = new File(SENSIBLE_PHONENUMBERS_FILE_PATH);
-        FileInputStream sensiblePNInputStream;
+    private final Runnable mReloadRunnable = new Runnable() {
+        @Override
+        public void run() {
+            Log.d(LOG_TAG, "Sensitive phone numbers changed, reloading");
+            // Readers keep using the old snapshot until the new one is complete
+            mSnapshot = newSnapshot();
+        }
+    };
 
-        try {
-            sensiblePNInputStream = new FileInputStream(sensiblePNFile);
-        } catch (FileNotFoundException e) {
-            Log.w(LOG_TAG, "Can not open " + sensiblePNFile.getAbsolutePath());
-            return;
+    private SensitiveNumbersSnapshot newSnapshot() {
+        return new SensitiveNumbersSnapshot(readIndex(), getMinMatch(),
+                isStrictComparison());
+    }
+
+    /**
+     * @return how many trailing characters the number hash may be keyed by
+     */
+    private static int getMinMatch() {
+        // Devices may lower the min match of PhoneNumberUtils.compare. Keying by fewer
+        // characters than compare uses is always safe, so never go beyond the default,
+        // whether or not compare honors the configured value.
+        Resources res = Resources.getSystem();
+        int resId = res.getIdentifier("config_phonenumber_compare_min_match", "integer",
+                "android");
+        int minMatch = resId != 0 ? res.getInteger(resId) : 0;
+        return minMatch > 0 ? Math.min(minMatch, SensitiveNumberHash.DEFAULT_MIN_MATCH)
+                : SensitiveNumberHash.DEFAULT_MIN_MATCH;
+    }
+
+    /**
+     * @return whether the device compares phone numbers strictly, which the number hash
+     *         does not support
+     */
+    private static boolean isStrictComparison() {
+        Resources res = Resources.getSystem();
+        int resId = res.getIdentifier("config_use_strict_phone_number_comparation", "bool",
+                "android");
+        return resId != 0 && res.getBoolean(resId);
+    }
+
+    private Handler getBackgroundHandler() {
+        synchronized (mLoadLock) {
+            if (mBackgroundHandler == null) {
+                HandlerThread thread = new HandlerThread(LOG_TAG);
+                thread.start();
+                mBackgroundHandler = new Handler(thread.getLooper());
+            }
+            return mBackgroundHandler;
         }
+    }
 
-        try {
-            for (SensitivePN sensitivePN : new XmlParser().read(sensiblePNInputStream).getSensitivePN()) {
-                String[] mccs = sensitivePN.getNetwork().split(",");
-                for (String mcc : mccs) {
-                    mSensitiveNumbersMap.put(mcc, new ArrayList(sensitivePN.getItem()));
-                }
+    private void writePendingIndex() {
+        synchronized (mLoadLock) {
+            File indexDir = mIndexDir;
+            ByteBuffer data = mPendingIndex;
+            if (data == null || indexDir == null) {
+                return;
             }
-        } catch (DatatypeConfigurationException | IOException | XmlPullParserException e) {
-            Log.w(LOG_TAG, "Exception in spn-conf parser", e);
+            // Dropped whether or not the write succeeds, the next load that has to parse
+            // the lists tries again
+            mPendingIndex = null;
+            SensitivePnIndex.write(new File(indexDir, SENSIBLE_PHONENUMBERS_INDEX_NAME), data);
         }
+    }
 
-        sNumbersLoaded = true;
+    private SensitivePnIndex readIndex() {
+        // List files ordered from the highest to the lowest priority
+        ArrayList<File> sources = new ArrayList<>();
+        long sourceStamp = 17;
+        long sourceLength = 0;
+        for (String path : SENSIBLE_PHONENUMBERS_FILE_PATHS) {
+            File sensiblePNFile = new File(path);
+            if (!sensiblePNFile.isFile()) {
+                continue;
+            }
+            sources.add(sensiblePNFile);
+            sourceStamp = 31 * sourceStamp + path.hashCode();
+            sourceStamp = 31 * sourceStamp + sensiblePNFile.lastModified();
+            sourceStamp = 31 * sourceStamp + sensiblePNFile.length();
+            sourceLength += sensiblePNFile.length();
+        }
+        if (sources.isEmpty()) {
+            Log.w(LOG_TAG, "Can not open " + SENSIBLE_PHONENUMBERS_FILE_PATH);
+            return null;
+        }
+
+        // Prefer the precompiled index over parsing the whole XML files again
+        File indexDir = mIndexDir;
+        File indexFile = indexDir != null
+                ? new File(indexDir, SENSIBLE_PHONENUMBERS_INDEX_NAME) : null;
+        if (indexFile != null) {
+            SensitivePnIndex index = SensitivePnIndex.map(indexFile, sourceStamp, sourceLength);
+            if (index != null) {
+                return index;
+            }
+        }
+
+        SensitivePnIndex.Builder builder = new SensitivePnIndex.Builder();
+        boolean parsed = true;
+        for (File sensiblePNFile : sources) {
+            builder.startSource();
+            try (FileInputStream in = new FileInputStream(sensiblePNFile)) {
+                // The index backs getSensitivePnInfosForMcc(), so keep all fields of the items
+                SensitivePnParser.parse(in, builder, true);
+            } catch (FileNotFoundException e) {
+                Log.w(LOG_TAG, "Can not open " + sensiblePNFile.getAbsolutePath());
+                parsed = false;
+            } catch (IOException | XmlPullParserException e) {
+                Log.w(LOG_TAG, "Exception in spn-conf parser", e);
+                parsed = false;
+            }
+        }
+
+        ByteBuffer data = builder.build(sourceStamp, sourceLength);
+        // Never persist a partially parsed list, it would shadow the XML until it changes
+        if (parsed && indexFile != null) {
+            synchronized (mLoadLock) {
+                // Superseded by this load
+                mPendingIndex = null;
+            }
+            SensitivePnIndex.write(indexFile, data);
+        } else if (parsed) {
+            synchronized (mLoadLock) {
+                mPendingIndex = data;
+            }
+            // A context might have come in while parsing
+            writePendingIndex();
+        }
+        try {
+            return new SensitivePnIndex(data);
+        } catch (IOException e) {
+            Log.w(LOG_TAG, "Can not load sensitive phone numbers index", e);
+            return null;
+        }
     }
 
     public ArrayList<Item> getSensitivePnInfosForMcc(String mcc) {
-        loadSensiblePhoneNumbers();
-        return mSensitiveNumbersMap.getOrDefault(mcc, new ArrayList<Item>());
+        return loadSensiblePhoneNumbers(null).getItems(mcc);
+    }
+
+    /**
+     * Same as {@link #getSensitivePnInfosForMcc(String)}, but lets the first load persist
+     * the index, so later processes don't need to parse the XML again.
+     */
+    public ArrayList<Item> getSensitivePnInfosForMcc(Context context, String mcc) {
+        return loadSensiblePhoneNumbers(context).getItems(mcc);
     }
 
     public boolean isSensitiveNumber(Context context, String numberToCheck, int subId) {
@@ -109,73 +298,117 @@ public class SensitivePhoneNumbers {
         if (TextUtils.isEmpty(nationalNumber)) {
             return false;
         }
-        loadSensiblePhoneNumbers();
+        SensitiveNumbersSnapshot snapshot = loadSensiblePhoneNumbers(context);
 
-        SubscriptionManager subManager = context.getSystemService(SubscriptionManager.class);
-        List<SubscriptionInfo> list = subManager.getActiveSubscriptionInfoList();
-        if (list != null) {
-            // Test all subscriptions so an accidential use of a wrong sim also hides the number
-            for (SubscriptionInfo subInfo : list) {
-                String mcc = String.valueOf(subInfo.getMcc());
-                if (isSensitiveNumber(nationalNumber, mcc)) {
-                    return true;
-                }
+        for (String mcc : getMccTracker(context).getMccs(subId)) {
+            if (snapshot.isSensitiveNumber(nationalNumber, mcc)) {
+                return true;
             }
         }
+        return false;
+    }
 
-        // Fall back to check with the passed subId
-        TelephonyManager telephonyManager = context.getSystemService(TelephonyManager.class);
-        if (subId == SubscriptionManager.INVALID_SUBSCRIPTION_ID) {
-            subId = SubscriptionManager.getDefaultSubscriptionId();
+    /**
+     * Checks a whole batch of numbers, e.g. all rows of a call log, at once.
+     *
+     * The MCCs to check against are resolved only once for the batch and every distinct
+     * number is checked only once, no matter how often it occurs in the list.
+     *
+     * @return a set with the bit of each sensitive number's position in the list set
+     */
+    public BitSet isSensitiveNumbers(Context context, List<String> numbersToCheck, int subId) {
+        if (numbersToCheck.isEmpty()) {
+            return new BitSet();
         }
-        telephonyManager = telephonyManager.createForSubscriptionId(subId);
-        String networkUsed = telephonyManager.getNetworkOperator();
-        if (!TextUtils.isEmpty(networkUsed)) {
-            String networkMCC = networkUsed.substring(0, 3);
-            if (isSensitiveNumber(nationalNumber, networkMCC)) {
-                return true;
-            }
+        SensitiveNumbersSnapshot snapshot = loadSensiblePhoneNumbers(context);
+        List<String> mccs = getMccTracker(context).getMccs(subId);
+        return snapshot.isSensitiveNumbers(numbersToCheck, mccs, mNationalNumbers,
+                getCountryIso(context));
+    }
+
+    /**
+     * Finds the list entry matching a number, e.g. to label a hotline in the in-call UI.
+     *
+     * The returned item is shared and must not be modified. Once the lists of the checked
+     * MCCs have been used before, the lookup itself does not allocate.
+     *
+     * @param matchFlags combination of {@link #MATCH_EXACT}, {@link #MATCH_PREFIX} and
+     *        {@link #MATCH_SHORT_CODE}
+     * @param categoryMask bit mask of the item categories to consider, bit n standing for
+     *        category n, or {@link #CATEGORY_ALL}
+     * @return the matching item or null
+     */
+    public Item findSensitiveItem(Context context, String numberToCheck, int subId,
+            int matchFlags, int categoryMask) {
+        String nationalNumber = formatNumberToNational(context, numberToCheck);
+        if (TextUtils.isEmpty(nationalNumber)) {
+            return null;
         }
+        SensitiveNumbersSnapshot snapshot = loadSensiblePhoneNumbers(context);
 
-        // Also try the sim's operator
-        if (telephonyManager.getSimState() == TelephonyManager.SIM_STATE_READY) {
-            String simOperator = telephonyManager.getSimOperator();
-            if (!TextUtils.isEmpty(simOperator)) {
-                String networkMCC = simOperator.substring(0, 3);
-                if (isSensitiveNumber(nationalNumber, networkMCC)) {
-                    return true;
-                }
+        List<String> mccs = getMccTracker(context).getMccs(subId);
+        for (int i = 0; i < mccs.size(); i++) {
+            Item item = snapshot.findItem(nationalNumber, mccs.get(i), matchFlags, categoryMask);
+            if (item != null) {
+                return item;
             }
         }
+        return null;
+    }
 
-        return false;
+    /**
+     * Prints the state of the loaded lists and the number formatting cache, e.g. from the
+     * dump of the service using this class.
+     */
+    public void dump(PrintWriter pw) {
+        pw.println(LOG_TAG + ":");
+        pw.println("  loaded=" + (mSnapshot != null) + " indexDir=" + mIndexDir);
+        mNationalNumbers.dump(pw, "  nationalNumbers: ");
     }
 
-    private boolean isSensitiveNumber(String numberToCheck, String mcc) {
-        if (mSensitiveNumbersMap.containsKey(mcc)) {
-            for (Item item : mSensitiveNumbersMap.get(mcc)) {
-                if (PhoneNumberUtils.compare(numberToCheck, item.getNumber())) {
-                    return true;
-                }
+    private MccTracker getMccTracker(Context context) {
+        MccTracker tracker = mMccTracker.get();
+        if (tracker == null) {
+            // Built without holding a lock, as it queries telephony. Racing callers may each
+            // build one, only the published one starts tracking.
+            tracker = new MccTracker(context, getBackgroundHandler());
+            if (mMccTracker.compareAndSet(null, tracker)) {
+                tracker.startTracking();
+            } else {
+                tracker = mMccTracker.get();
             }
         }
-        return false;
+        return tracker;
     }
 
     private String formatNumberToNational(Context context, String number) {
-        PhoneNumberUtil util = PhoneNumberUtil.getInstance();
-        String countryIso = context.getResources().getConfiguration().locale.getCountry();
+        return mNationalNumbers.format(number, getCountryIso(context));
+    }
 
-        Phonenumber.PhoneNumber pn = null;
-        try {
-            pn = util.parse(number, countryIso);
-        } catch (NumberParseException e) {
-        }
+    private String getCountryIso(Context context) {
+        String countryIso = mCountryIso;
+        if (countryIso == null) {
+            Context appContext = context.getApplicationContext();
+            synchronized (mLoadLock) {
+                if (mCountryIso == null) {
+                    // Track locale changes instead of reading the configuration on every check
+                    appContext.registerComponentCallbacks(new ComponentCallbacks() {
+                        @Override
+                        public void onConfigurationChanged(Configuration newConfig) {
+                            mCountryIso = newConfig.locale.getCountry();
+                        }
 
-        if (pn != null) {
-            return util.format(pn, PhoneNumberFormat.NATIONAL);
-        } else {
-            return number;
+                        @Override
+                        public void onLowMemory() {
+                            mNationalNumbers.clear();
+                        }
+                    });
+                    mCountryIso = appContext.getResources().getConfiguration()
+                            .locale.getCountry();
+                }
+                countryIso = mCountryIso;
+            }
         }
+        return countryIso;
     }
 }
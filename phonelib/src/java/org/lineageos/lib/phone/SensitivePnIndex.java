@@ -0,0 +1,410 @@
+/*
+ * Copyright (C) 2021 The LineageOS Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.lineageos.lib.phone;
+
+import android.util.Log;
+
+import org.lineageos.lib.phone.spn.Item;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+
+/**
+ * Compact binary representation of the sensitive phone numbers list.
+ *
+ * The index is built once from the XML list and written to disk, so later processes can
+ * memory-map it instead of parsing the XML again. Layout (all values big endian):
+ *
+ * <pre>
+ *   header     magic, version, source stamp (long), source length (long),
+ *              mcc count, list count, item count
+ *   mcc table  mcc count  * (mcc string offset, list index)
+ *   list table list count * (first item, item count)
+ *   item table item count * FIELD_COUNT string offsets, -1 for absent fields
+ *   strings    (unsigned short length, utf-8 bytes)*
+ * </pre>
+ *
+ * The source stamp is derived from the path, mtime and size of every list file the index
+ * was built from. All MCCs of a single {@code sensitivePN} entry point to the same list.
+ */
+final class SensitivePnIndex {
+    private static final String TAG = "SensitivePnIndex";
+
+    private static final int MAGIC = 0x53504e49; // "SPNI"
+    private static final int VERSION = 2;
+
+    private static final int HEADER_SIZE = 36;
+    private static final int MCC_ENTRY_SIZE = 8;
+    private static final int LIST_ENTRY_SIZE = 8;
+
+    static final int FIELD_NUMBER = 0;
+    static final int FIELD_NAME = 1;
+    static final int FIELD_CATEGORIES = 2;
+    static final int FIELD_LANGUAGES = 3;
+    static final int FIELD_ORGANIZATION = 4;
+    static final int FIELD_WEBSITE = 5;
+    private static final int FIELD_COUNT = 6;
+
+    private static final int ITEM_ENTRY_SIZE = FIELD_COUNT * 4;
+
+    private final ByteBuffer mBuffer;
+    private final long mSourceStamp;
+    private final long mSourceLength;
+    private final int mListCount;
+    private final int mItemCount;
+    private final int mListTableOffset;
+    private final int mItemTableOffset;
+    private final int mStringsOffset;
+    private final HashMap<String, Integer> mMccToList;
+
+    SensitivePnIndex(ByteBuffer buffer) throws IOException {
+        mBuffer = buffer.order(ByteOrder.BIG_ENDIAN);
+        if (mBuffer.capacity() < HEADER_SIZE
+                || mBuffer.getInt(0) != MAGIC || mBuffer.getInt(4) != VERSION) {
+            throw new IOException("Not a sensitive phone numbers index");
+        }
+        mSourceStamp = mBuffer.getLong(8);
+        mSourceLength = mBuffer.getLong(16);
+        int mccCount = mBuffer.getInt(24);
+        mListCount = mBuffer.getInt(28);
+        mItemCount = mBuffer.getInt(32);
+
+        if (mccCount < 0 || mListCount < 0 || mItemCount < 0
+                || HEADER_SIZE + (long) mccCount * MCC_ENTRY_SIZE
+                        + (long) mListCount * LIST_ENTRY_SIZE
+                        + (long) mItemCount * ITEM_ENTRY_SIZE > mBuffer.capacity()) {
+            throw new IOException("Truncated sensitive phone numbers index");
+        }
+        mListTableOffset = HEADER_SIZE + mccCount * MCC_ENTRY_SIZE;
+        mItemTableOffset = mListTableOffset + mListCount * LIST_ENTRY_SIZE;
+        mStringsOffset = mItemTableOffset + mItemCount * ITEM_ENTRY_SIZE;
+
+        // The list and MCC tables are small, check them up front so lookups can index the
+        // item table directly. The items themselves are checked by write() and again on
+        // access, mapping must not read the whole file.
+        for (int i = 0; i < mListCount; i++) {
+            int entry = mListTableOffset + i * LIST_ENTRY_SIZE;
+            int first = mBuffer.getInt(entry);
+            int count = mBuffer.getInt(entry + 4);
+            if (first < 0 || count < 0 || (long) first + count > mItemCount) {
+                throw new IOException("Invalid list " + i + " in sensitive phone numbers index");
+            }
+        }
+
+        // The MCC table is tiny compared to the item table, so keep it on the heap
+        mMccToList = new HashMap<>(mccCount * 2);
+        for (int i = 0; i < mccCount; i++) {
+            int entry = HEADER_SIZE + i * MCC_ENTRY_SIZE;
+            int offset = mBuffer.getInt(entry);
+            int list = mBuffer.getInt(entry + 4);
+            if (!isValidString(offset) || list < 0 || list >= mListCount) {
+                throw new IOException("Invalid MCC " + i + " in sensitive phone numbers index");
+            }
+            mMccToList.put(readString(offset), list);
+        }
+    }
+
+    private boolean isValidString(int offset) {
+        return offset >= mStringsOffset && offset <= mBuffer.capacity() - 2
+                && offset + 2 + (mBuffer.getShort(offset) & 0xffff) <= mBuffer.capacity();
+    }
+
+    /**
+     * Checks the string offsets of all items, which the constructor leaves to the lookups.
+     */
+    private void checkItems() throws IOException {
+        for (int i = 0; i < mItemCount * FIELD_COUNT; i++) {
+            int offset = mBuffer.getInt(mItemTableOffset + i * 4);
+            if (offset != -1 && !isValidString(offset)) {
+                throw new IOException("Invalid string offset " + offset + " of item "
+                        + i / FIELD_COUNT + " in sensitive phone numbers index");
+            }
+        }
+    }
+
+    /**
+     * Maps an index file written by {@link #write} into memory.
+     *
+     * @return the index or null if it does not exist, is corrupt or was built
+     *         from a different version of the source files
+     */
+    static SensitivePnIndex map(File indexFile, long sourceStamp, long sourceLength) {
+        if (!indexFile.isFile()) {
+            return null;
+        }
+        try (RandomAccessFile file = new RandomAccessFile(indexFile, "r");
+                FileChannel channel = file.getChannel()) {
+            SensitivePnIndex index = new SensitivePnIndex(
+                    channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size()));
+            if (index.mSourceStamp != sourceStamp || index.mSourceLength != sourceLength) {
+                Log.d(TAG, "Index " + indexFile + " is stale");
+                return null;
+            }
+            return index;
+        } catch (IOException e) {
+            Log.w(TAG, "Can not map " + indexFile, e);
+            return null;
+        }
+    }
+
+    /**
+     * Writes the given index data to disk. The data is written to a temporary file first,
+     * so concurrent readers never map a partially written index. Index data that does not
+     * pass a full check is not written at all.
+     */
+    static boolean write(File indexFile, ByteBuffer data) {
+        try {
+            new SensitivePnIndex(data.duplicate()).checkItems();
+        } catch (IOException e) {
+            Log.w(TAG, "Not writing invalid index " + indexFile, e);
+            return false;
+        }
+        File tmpFile = new File(indexFile.getPath() + ".tmp");
+        try (FileOutputStream out = new FileOutputStream(tmpFile)) {
+            out.getChannel().write(data.duplicate());
+            out.getFD().sync();
+        } catch (IOException e) {
+            Log.w(TAG, "Can not write " + tmpFile, e);
+            tmpFile.delete();
+            return false;
+        }
+        if (!tmpFile.renameTo(indexFile)) {
+            Log.w(TAG, "Can not rename " + tmpFile + " to " + indexFile);
+            tmpFile.delete();
+            return false;
+        }
+        return true;
+    }
+
+    int getListForMcc(String mcc) {
+        Integer list = mMccToList.get(mcc);
+        return list != null ? list : -1;
+    }
+
+    int getListCount() {
+        return mListCount;
+    }
+
+    int getItemCount(int list) {
+        return mBuffer.getInt(mListTableOffset + list * LIST_ENTRY_SIZE + 4);
+    }
+
+    String getField(int list, int position, int field) {
+        int item = mBuffer.getInt(mListTableOffset + list * LIST_ENTRY_SIZE) + position;
+        return readString(mBuffer.getInt(mItemTableOffset + item * ITEM_ENTRY_SIZE + field * 4));
+    }
+
+    String getNumber(int list, int position) {
+        return getField(list, position, FIELD_NUMBER);
+    }
+
+    Item getItem(int list, int position) {
+        Item item = new Item();
+        item.setNumber(getField(list, position, FIELD_NUMBER));
+        item.setName(getField(list, position, FIELD_NAME));
+        item.setCategories(getField(list, position, FIELD_CATEGORIES));
+        item.setLanguages(getField(list, position, FIELD_LANGUAGES));
+        item.setOrganization(getField(list, position, FIELD_ORGANIZATION));
+        item.setWebsite(getField(list, position, FIELD_WEBSITE));
+        return item;
+    }
+
+    ArrayList<Item> getItems(String mcc) {
+        int list = getListForMcc(mcc);
+        if (list < 0) {
+            return new ArrayList<Item>();
+        }
+        int count = getItemCount(list);
+        ArrayList<Item> items = new ArrayList<>(count);
+        for (int i = 0; i < count; i++) {
+            items.add(getItem(list, i));
+        }
+        return items;
+    }
+
+    private String readString(int offset) {
+        if (offset == -1) {
+            return null;
+        }
+        if (!isValidString(offset)) {
+            // Damaged after it was written, treat the field as absent
+            Log.w(TAG, "Invalid string offset " + offset + " in sensitive phone numbers index");
+            return null;
+        }
+        int length = mBuffer.getShort(offset) & 0xffff;
+        byte[] bytes = new byte[length];
+        ByteBuffer view = mBuffer.duplicate();
+        view.position(offset + 2);
+        view.get(bytes);
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+
+    /**
+     * Collects lists and items in memory and serializes them into the index format.
+     *
+     * Several list files can be added, from the highest to the lowest priority, each one
+     * started with {@link #startSource}. Within a file a later entry for an MCC replaces an
+     * earlier one; across files the lists of an MCC are merged, with numbers already
+     * listed by a file of higher priority dropped from the lower ones.
+     */
+    static final class Builder {
+        // Lists and items as added, before merging
+        private final ArrayList<int[]> mLists = new ArrayList<>();
+        private final ArrayList<String[]> mItems = new ArrayList<>();
+        // MCC -> (source, list) pairs in priority order
+        private final LinkedHashMap<String, ArrayList<int[]>> mMccLists = new LinkedHashMap<>();
+        private int mSource = 0;
+
+        /**
+         * Starts the next, lower priority, list file.
+         */
+        void startSource() {
+            mSource++;
+        }
+
+        /**
+         * Starts a new list shared by all given MCCs. Items added afterwards belong to it.
+         */
+        void startList(String[] mccs) {
+            int list = mLists.size();
+            mLists.add(new int[] { mItems.size(), 0 });
+            for (String mcc : mccs) {
+                ArrayList<int[]> lists = mMccLists.get(mcc);
+                if (lists == null) {
+                    lists = new ArrayList<>();
+                    mMccLists.put(mcc, lists);
+                }
+                int last = lists.size() - 1;
+                if (last >= 0 && lists.get(last)[0] == mSource) {
+                    // Later entries of the same file win, as they did with the old HashMap
+                    lists.set(last, new int[] { mSource, list });
+                } else {
+                    lists.add(new int[] { mSource, list });
+                }
+            }
+        }
+
+        void addItem(String number, String name, String categories, String languages,
+                String organization, String website) {
+            if (mLists.isEmpty()) {
+                throw new IllegalStateException("addItem() called before startList()");
+            }
+            mItems.add(new String[] {
+                    number, name, categories, languages, organization, website });
+            mLists.get(mLists.size() - 1)[1]++;
+        }
+
+        ByteBuffer build(long sourceStamp, long sourceLength) {
+            // Merge the lists of every MCC. MCCs with the same lists keep sharing one.
+            ArrayList<String> mccs = new ArrayList<>(mMccLists.keySet());
+            int[] mccToList = new int[mccs.size()];
+            HashMap<String, Integer> mergedLists = new HashMap<>();
+            ArrayList<int[]> lists = new ArrayList<>();
+            ArrayList<String[]> items = new ArrayList<>();
+            for (int i = 0; i < mccs.size(); i++) {
+                ArrayList<int[]> sources = mMccLists.get(mccs.get(i));
+                StringBuilder key = new StringBuilder();
+                for (int[] source : sources) {
+                    key.append(source[1]).append(',');
+                }
+                Integer merged = mergedLists.get(key.toString());
+                if (merged == null) {
+                    merged = lists.size();
+                    int first = items.size();
+                    HashSet<String> numbers = new HashSet<>();
+                    for (int[] source : sources) {
+                        int[] list = mLists.get(source[1]);
+                        for (int j = list[0]; j < list[0] + list[1]; j++) {
+                            String[] item = mItems.get(j);
+                            if (sources.size() == 1 || numbers.add(item[FIELD_NUMBER])) {
+                                items.add(item);
+                            }
+                        }
+                    }
+                    lists.add(new int[] { first, items.size() - first });
+                    mergedLists.put(key.toString(), merged);
+                }
+                mccToList[i] = merged;
+            }
+
+            int stringsOffset = HEADER_SIZE + mccs.size() * MCC_ENTRY_SIZE
+                    + lists.size() * LIST_ENTRY_SIZE + items.size() * ITEM_ENTRY_SIZE;
+
+            // Lay out the string pool first, so all offsets are known up front
+            HashMap<String, Integer> offsets = new HashMap<>();
+            ArrayList<byte[]> pool = new ArrayList<>();
+            int poolSize = 0;
+            ArrayList<String> allStrings = new ArrayList<>(mccs);
+            for (String[] item : items) {
+                for (String field : item) {
+                    allStrings.add(field);
+                }
+            }
+            for (String s : allStrings) {
+                if (s == null || offsets.containsKey(s)) {
+                    continue;
+                }
+                byte[] bytes = s.getBytes(StandardCharsets.UTF_8);
+                if (bytes.length > 0xffff) {
+                    throw new IllegalArgumentException("String too long for index: " + s);
+                }
+                offsets.put(s, stringsOffset + poolSize);
+                pool.add(bytes);
+                poolSize += 2 + bytes.length;
+            }
+
+            ByteBuffer buffer = ByteBuffer.allocate(stringsOffset + poolSize)
+                    .order(ByteOrder.BIG_ENDIAN);
+            buffer.putInt(MAGIC);
+            buffer.putInt(VERSION);
+            buffer.putLong(sourceStamp);
+            buffer.putLong(sourceLength);
+            buffer.putInt(mccs.size());
+            buffer.putInt(lists.size());
+            buffer.putInt(items.size());
+            for (int i = 0; i < mccs.size(); i++) {
+                buffer.putInt(offsets.get(mccs.get(i)));
+                buffer.putInt(mccToList[i]);
+            }
+            for (int[] list : lists) {
+                buffer.putInt(list[0]);
+                buffer.putInt(list[1]);
+            }
+            for (String[] item : items) {
+                for (String field : item) {
+                    buffer.putInt(field != null ? offsets.get(field) : -1);
+                }
+            }
+            for (byte[] bytes : pool) {
+                buffer.putShort((short) bytes.length);
+                buffer.put(bytes);
+            }
+            buffer.flip();
+            return buffer;
+        }
+    }
+}
@@ -0,0 +1,174 @@
+/*
+ * Copyright (C) 2021 The LineageOS Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.lineageos.lib.phone;
+
+import android.util.Xml;
+
+import org.xmlpull.v1.XmlPullParser;
+import org.xmlpull.v1.XmlPullParserException;
+
+import java.io.IOException;
+import java.io.InputStream;
+
+/**
+ * Streaming parser for sensitive_pn.xml, see SpnInfo.xsd for the format.
+ *
+ * Unlike the generated spn.XmlParser it does not build an object tree first, but feeds
+ * every {@code <sensitivePN>} straight into a {@link SensitivePnIndex.Builder}, where all
+ * MCCs of the entry share a single list.
+ */
+final class SensitivePnParser {
+    private static final String ns = null;
+
+    private static final String TAG_SENSITIVE_PNS = "sensitivePNS";
+    private static final String TAG_SENSITIVE_PN = "sensitivePN";
+    private static final String TAG_ITEM = "item";
+    private static final String TAG_NUMBER = "number";
+    private static final String TAG_NAME = "name";
+    private static final String TAG_CATEGORIES = "categories";
+    private static final String TAG_LANGUAGES = "languages";
+    private static final String TAG_ORGANIZATION = "organization";
+    private static final String TAG_WEBSITE = "website";
+    private static final String ATTR_NETWORK = "network";
+
+    private final XmlPullParser mParser;
+    private final SensitivePnIndex.Builder mBuilder;
+    private final boolean mIncludeOptionalFields;
+
+    private SensitivePnParser(XmlPullParser parser, SensitivePnIndex.Builder builder,
+            boolean includeOptionalFields) {
+        mParser = parser;
+        mBuilder = builder;
+        mIncludeOptionalFields = includeOptionalFields;
+    }
+
+    /**
+     * Parses the given list into the builder.
+     *
+     * @param includeOptionalFields whether to keep the {@code organization} and
+     *        {@code website} of every item, they are skipped otherwise
+     */
+    static void parse(InputStream in, SensitivePnIndex.Builder builder,
+            boolean includeOptionalFields) throws IOException, XmlPullParserException {
+        XmlPullParser parser = Xml.newPullParser();
+        parser.setFeature(XmlPullParser.FEATURE_PROCESS_NAMESPACES, false);
+        parser.setInput(in, null);
+        parser.nextTag();
+        new SensitivePnParser(parser, builder, includeOptionalFields).readSensitivePns();
+    }
+
+    private void readSensitivePns() throws IOException, XmlPullParserException {
+        mParser.require(XmlPullParser.START_TAG, ns, TAG_SENSITIVE_PNS);
+        while (mParser.nextTag() == XmlPullParser.START_TAG) {
+            if (TAG_SENSITIVE_PN.equals(mParser.getName())) {
+                readSensitivePn();
+            } else {
+                skip();
+            }
+        }
+        mParser.require(XmlPullParser.END_TAG, ns, TAG_SENSITIVE_PNS);
+    }
+
+    private void readSensitivePn() throws IOException, XmlPullParserException {
+        String network = mParser.getAttributeValue(ns, ATTR_NETWORK);
+        if (network == null) {
+            throw new XmlPullParserException("Missing " + ATTR_NETWORK + " attribute",
+                    mParser, null);
+        }
+        mBuilder.startList(network.split(","));
+        while (mParser.nextTag() == XmlPullParser.START_TAG) {
+            if (TAG_ITEM.equals(mParser.getName())) {
+                readItem();
+            } else {
+                skip();
+            }
+        }
+    }
+
+    private void readItem() throws IOException, XmlPullParserException {
+        String number = null;
+        String name = null;
+        String categories = null;
+        String languages = null;
+        String organization = null;
+        String website = null;
+
+        while (mParser.nextTag() == XmlPullParser.START_TAG) {
+            switch (mParser.getName()) {
+                case TAG_NUMBER:
+                    number = readText();
+                    break;
+                case TAG_NAME:
+                    name = readText();
+                    break;
+                case TAG_CATEGORIES:
+                    categories = readText();
+                    break;
+                case TAG_LANGUAGES:
+                    languages = readText();
+                    break;
+                case TAG_ORGANIZATION:
+                    if (mIncludeOptionalFields) {
+                        organization = readText();
+                    } else {
+                        skip();
+                    }
+                    break;
+                case TAG_WEBSITE:
+                    if (mIncludeOptionalFields) {
+                        website = readText();
+                    } else {
+                        skip();
+                    }
+                    break;
+                default:
+                    skip();
+                    break;
+            }
+        }
+
+        if (number == null) {
+            throw new XmlPullParserException("Missing " + TAG_NUMBER + " element", mParser, null);
+        }
+        mBuilder.addItem(number, name, categories, languages, organization, website);
+    }
+
+    private String readText() throws IOException, XmlPullParserException {
+        String text = "";
+        if (mParser.next() == XmlPullParser.TEXT) {
+            text = mParser.getText();
+            mParser.nextTag();
+        }
+        return text;
+    }
+
+    private void skip() throws IOException, XmlPullParserException {
+        int depth = 1;
+        while (depth != 0) {
+            switch (mParser.next()) {
+                case XmlPullParser.END_TAG:
+                    depth--;
+                    break;
+                case XmlPullParser.START_TAG:
+                    depth++;
+                    break;
+                case XmlPullParser.END_DOCUMENT:
+                    throw new XmlPullParserException("Unexpected end of document", mParser, null);
+            }
+        }
+    }
+}
@@ -0,0 +1,156 @@
+/*
+ * Copyright (C) 2021 The LineageOS Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.lineageos.lib.phone;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import android.telephony.PhoneNumberUtils;
+
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+
+import java.util.Random;
+
+/**
+ * Checks that {@link SensitiveNumberHash} finds a number exactly when a linear scan with
+ * {@link PhoneNumberUtils#compare} does.
+ */
+@RunWith(JUnit4.class)
+public class SensitiveNumberHashTest {
+    private static final int FUZZ_ITERATIONS = 20000;
+    private static final int QUERIES_PER_LIST = 20;
+    private static final int MAX_LIST_SIZE = 30;
+    private static final int MAX_NUMBER_LENGTH = 14;
+    // Mostly digits, so numbers sharing a suffix are common
+    private static final char[] SYMBOLS = { '+', ' ', '-', ',', ';', '*', '#', 'N' };
+    private static final String[] PREFIXES = { "", "0", "00", "+", "+49", "0049", "011" };
+
+    private static final String[] LIST = {
+        "0800 1110111", "+49 30 1234567", "116117", "110", "112", "0049 89 7654321",
+    };
+
+    @Test
+    public void postDialDigits() {
+        assertMatches(LIST, "08001110111,123");
+        assertMatches(LIST, "08001110111;9");
+        assertMatches(LIST, "0800 111 0111,,1;2");
+        assertMatches(LIST, "116117,1");
+        assertMatches(LIST, "1234567,0800111");
+    }
+
+    @Test
+    public void separators() {
+        assertMatches(LIST, "0800-111-0111");
+        assertMatches(LIST, "(030) 1234567");
+        assertMatches(LIST, "1 1 6 1 1 7");
+        assertMatches(LIST, "11 0");
+    }
+
+    @Test
+    public void internationalPrefix() {
+        assertMatches(LIST, "+49 800 1110111");
+        assertMatches(LIST, "004930 1234567");
+        assertMatches(LIST, "030 1234567");
+        assertMatches(LIST, "+49 116117");
+        assertMatches(LIST, "+110");
+        assertMatches(LIST, "0049110");
+    }
+
+    @Test
+    public void wildCard() {
+        String[] numbers = { "08001110NNN", "11611N" };
+        assertMatches(numbers, "08001110123");
+        assertMatches(numbers, "116117");
+        assertMatches(LIST, "08001110NNN");
+        assertMatches(LIST, "N");
+    }
+
+    @Test
+    public void emptyAndNull() {
+        String[] numbers = { "", "-", "110" };
+        assertMatches(numbers, "");
+        assertMatches(numbers, "-");
+        assertMatches(numbers, null);
+    }
+
+    @Test
+    public void fuzz() {
+        Random random = new Random(0x534e4848L);
+        for (int i = 0; i < FUZZ_ITERATIONS; i++) {
+            String[] numbers = new String[1 + random.nextInt(MAX_LIST_SIZE)];
+            for (int j = 0; j < numbers.length; j++) {
+                numbers[j] = randomNumber(random);
+            }
+            for (int j = 0; j < QUERIES_PER_LIST; j++) {
+                String number = random.nextBoolean() ? randomNumber(random)
+                        : variantOf(random, numbers[random.nextInt(numbers.length)]);
+                assertMatches(numbers, number);
+            }
+        }
+    }
+
+    private static void assertMatches(String[] numbers, String number) {
+        int expected = -1;
+        for (int i = 0; i < numbers.length && expected < 0; i++) {
+            if (PhoneNumberUtils.compare(number, numbers[i])) {
+                expected = i;
+            }
+        }
+        for (boolean strict : new boolean[] { false, true }) {
+            for (int minMatch = 1; minMatch <= SensitiveNumberHash.DEFAULT_MIN_MATCH;
+                    minMatch++) {
+                int actual = new SensitiveNumberHash(numbers, minMatch, strict).find(number);
+                String message = "\"" + number + "\" minMatch=" + minMatch
+                        + " strict=" + strict;
+                assertEquals(message, expected >= 0, actual >= 0);
+                if (actual >= 0) {
+                    assertTrue(message, PhoneNumberUtils.compare(number, numbers[actual]));
+                }
+            }
+        }
+    }
+
+    private static String randomNumber(Random random) {
+        int length = random.nextInt(MAX_NUMBER_LENGTH + 1);
+        StringBuilder number = new StringBuilder(length);
+        for (int i = 0; i < length; i++) {
+            number.append(random.nextInt(6) == 0 ? SYMBOLS[random.nextInt(SYMBOLS.length)]
+                    : (char) ('0' + random.nextInt(3)));
+        }
+        return number.toString();
+    }
+
+    /**
+     * @return the number with another prefix, separators or post-dial digits
+     */
+    private static String variantOf(Random random, String number) {
+        StringBuilder variant = new StringBuilder(PREFIXES[random.nextInt(PREFIXES.length)]);
+        for (int i = random.nextInt(2); i < number.length(); i++) {
+            variant.append(number.charAt(i));
+            if (random.nextInt(5) == 0) {
+                variant.append(' ');
+            }
+        }
+        if (random.nextInt(3) == 0) {
+            variant.append(random.nextBoolean() ? PhoneNumberUtils.PAUSE : PhoneNumberUtils.WAIT)
+                    .append(random.nextInt(1000));
+        }
+        return variant.toString();
+    }
+}
@@ -0,0 +1,202 @@
+/*
+ * Copyright (C) 2021 The LineageOS Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.lineageos.lib.phone;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import android.telephony.PhoneNumberUtils;
+
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+
+import java.util.Random;
+
+/**
+ * Checks that {@link SensitiveNumberTrie} agrees with the hash behind
+ * {@link SensitiveNumbersSnapshot#isSensitiveNumber} on the national, trunk and
+ * international forms of a number, and that prefix and short code matches see the same
+ * normalized number.
+ */
+@RunWith(JUnit4.class)
+public class SensitiveNumberTrieTest {
+    private static final int FUZZ_ITERATIONS = 20000;
+    private static final int QUERIES_PER_LIST = 20;
+    private static final int MAX_LIST_SIZE = 30;
+    private static final int MAX_NATIONAL_LENGTH = 11;
+    private static final String[] PREFIXES = {
+        "", "0", "+49", "+49 ", "0049", "01149", "+43", "+", "00", "+999",
+    };
+
+    private static final String[] LIST = {
+        "110", "112", "116117", "0800 1110111", "+49 30 1234567", "0049 89 7654321",
+        "089 1111111", "+43 1 5555555",
+    };
+    private static final String[] CATEGORIES = new String[LIST.length];
+
+    @Test
+    public void nationalAndInternationalForms() {
+        assertExact("0800 1110111", 3);
+        assertExact("+49 800 1110111", 3);
+        assertExact("0049 800 1110111", 3);
+        assertExact("011 49 800 1110111", 3);
+        assertExact("030 1234567", 4);
+        assertExact("+49 (30) 123-4567", 4);
+        assertExact("0049 30 1234567", 4);
+        assertExact("089 7654321", 5);
+        assertExact("+49 89 7654321", 5);
+        assertExact("+49 89 1111111", 6);
+        assertExact("01 5555555", 7);
+        assertExact("+43 1 5555555", 7);
+    }
+
+    @Test
+    public void postDialDigits() {
+        assertExact("08001110111,123", 3);
+        assertExact("+49 30 1234567;9", 4);
+        assertExact("0800 111 0111,,1;2", 3);
+    }
+
+    @Test
+    public void otherNumbers() {
+        assertExact("030 7654322", -1);
+        assertExact("+49 30 7777777", -1);
+        assertExact("0800 2220222", -1);
+        assertExact("116116", -1);
+        assertExact("113", -1);
+        assertExact("+44 20 7946000", -1);
+        // A known country code does not make another one match
+        assertExact("+44 30 1234567", -1);
+        assertExact("+49 1 5555555", -1);
+    }
+
+    @Test
+    public void shortInternationalNumbers() {
+        // Too few digits follow the country code to strip it, like compare does
+        assertExact("+49 116117", -1);
+        assertExact("0049 116117", -1);
+        assertExact("0116117", -1);
+        assertExact("+110", -1);
+        assertExact("0110", -1);
+        assertFind("+49 116117", SensitiveNumberTrie.MATCH_SHORT_CODE, -1);
+        assertFind("+49 110", SensitiveNumberTrie.MATCH_SHORT_CODE, -1);
+        assertFind("+1101", SensitiveNumberTrie.MATCH_PREFIX, -1);
+    }
+
+    @Test
+    public void prefixMatches() {
+        assertFind("+49 800 1110111 5", SensitiveNumberTrie.MATCH_PREFIX, 3);
+        assertFind("0049 800 1110111 5", SensitiveNumberTrie.MATCH_PREFIX, 3);
+        assertFind("0800 1110111 5", SensitiveNumberTrie.MATCH_PREFIX, 3);
+        assertFind("030 1234567 89", SensitiveNumberTrie.MATCH_PREFIX, 4);
+        assertFind("+49 30 1234567 89", SensitiveNumberTrie.MATCH_PREFIX, 4);
+        assertFind("+44 30 1234567 89", SensitiveNumberTrie.MATCH_PREFIX, -1);
+    }
+
+    @Test
+    public void shortCodeMatches() {
+        assertFind("116117", SensitiveNumberTrie.MATCH_SHORT_CODE, -1);
+        assertFind("1161171", SensitiveNumberTrie.MATCH_SHORT_CODE, 2);
+        assertFind("1101234", SensitiveNumberTrie.MATCH_SHORT_CODE, 0);
+        // Only a national number of the list starts with a short code
+        assertFind("+49 1161171", SensitiveNumberTrie.MATCH_SHORT_CODE, 2);
+        assertFind("+49 1101234", SensitiveNumberTrie.MATCH_SHORT_CODE, 0);
+        assertFind("08001110111 5", SensitiveNumberTrie.MATCH_SHORT_CODE, -1);
+    }
+
+    @Test
+    public void fuzz() {
+        Random random = new Random(0x534e5452L);
+        for (int i = 0; i < FUZZ_ITERATIONS; i++) {
+            String[] numbers = new String[1 + random.nextInt(MAX_LIST_SIZE)];
+            String[] categories = new String[numbers.length];
+            for (int j = 0; j < numbers.length; j++) {
+                numbers[j] = randomForm(random, randomNationalNumber(random));
+            }
+            SensitiveNumberTrie trie = new SensitiveNumberTrie(numbers, categories);
+            SensitiveNumberHash hash = new SensitiveNumberHash(numbers,
+                    SensitiveNumberHash.DEFAULT_MIN_MATCH, false);
+            for (int j = 0; j < QUERIES_PER_LIST; j++) {
+                String number = random.nextBoolean()
+                        ? randomForm(random, randomNationalNumber(random))
+                        : randomForm(random, nationalNumberOf(
+                                numbers[random.nextInt(numbers.length)]));
+                int actual = trie.find(number, SensitiveNumberTrie.MATCH_EXACT,
+                        SensitiveNumberTrie.CATEGORY_ALL);
+                if (actual >= 0) {
+                    String message = "\"" + number + "\" matched \"" + numbers[actual] + "\"";
+                    assertTrue(message, hash.find(number) >= 0);
+                    assertTrue(message, PhoneNumberUtils.compare(number, numbers[actual]));
+                }
+            }
+        }
+    }
+
+    /**
+     * Checks an exact lookup against the hash and the linear scan with compare.
+     */
+    private static void assertExact(String number, int expected) {
+        int actual = assertFind(number, SensitiveNumberTrie.MATCH_EXACT, expected);
+        SensitiveNumberHash hash = new SensitiveNumberHash(LIST,
+                SensitiveNumberHash.DEFAULT_MIN_MATCH, false);
+        assertEquals("\"" + number + "\" isSensitiveNumber", actual >= 0,
+                hash.find(number) >= 0);
+        boolean compared = false;
+        for (String listNumber : LIST) {
+            compared |= PhoneNumberUtils.compare(number, listNumber);
+        }
+        assertEquals("\"" + number + "\" compare", actual >= 0, compared);
+    }
+
+    private static int assertFind(String number, int matchFlags, int expected) {
+        SensitiveNumberTrie trie = new SensitiveNumberTrie(LIST, CATEGORIES);
+        int actual = trie.find(number, matchFlags, SensitiveNumberTrie.CATEGORY_ALL);
+        assertEquals("\"" + number + "\" flags=" + matchFlags, expected, actual);
+        return actual;
+    }
+
+    private static String randomNationalNumber(Random random) {
+        int length = 3 + random.nextInt(MAX_NATIONAL_LENGTH - 2);
+        StringBuilder number = new StringBuilder(length);
+        // No leading zero, it would read as a trunk prefix
+        number.append((char) ('1' + random.nextInt(2)));
+        for (int i = 1; i < length; i++) {
+            number.append((char) ('0' + random.nextInt(3)));
+        }
+        return number.toString();
+    }
+
+    private static String nationalNumberOf(String number) {
+        long prefix = SensitiveNumberTrie.prefixOf(number, number.length());
+        StringBuilder national = new StringBuilder();
+        for (int i = SensitiveNumberTrie.startOf(prefix); i < number.length(); i++) {
+            char c = number.charAt(i);
+            if (c >= '0' && c <= '9') {
+                national.append(c);
+            }
+        }
+        return national.toString();
+    }
+
+    /**
+     * @return the national number with a random international or trunk prefix
+     */
+    private static String randomForm(Random random, String nationalNumber) {
+        return PREFIXES[random.nextInt(PREFIXES.length)] + nationalNumber;
+    }
+}
@@ -0,0 +1,107 @@
+/*
+ * Copyright (C) 2021 The LineageOS Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.lineageos.lib.phone;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+
+/**
+ * Checks that a {@link SensitivePnIndex} is fully checked before it is written, while
+ * mapping it only checks the tables and leaves the items to the lookups.
+ */
+@RunWith(JUnit4.class)
+public class SensitivePnIndexTest {
+    private static final long SOURCE_STAMP = 1;
+    private static final long SOURCE_LENGTH = 2;
+
+    @Test
+    public void roundTrip() throws IOException {
+        File indexFile = newIndexFile();
+        try {
+            assertTrue(SensitivePnIndex.write(indexFile, build()));
+            SensitivePnIndex index = SensitivePnIndex.map(indexFile, SOURCE_STAMP,
+                    SOURCE_LENGTH);
+            assertNotNull(index);
+            int list = index.getListForMcc("262");
+            assertEquals(list, index.getListForMcc("263"));
+            assertEquals(2, index.getItemCount(list));
+            assertEquals("110", index.getNumber(list, 0));
+            assertNull(index.getField(list, 0, SensitivePnIndex.FIELD_WEBSITE));
+            assertEquals("https://www.116117.de",
+                    index.getField(list, 1, SensitivePnIndex.FIELD_WEBSITE));
+            assertNull(SensitivePnIndex.map(indexFile, SOURCE_STAMP + 1, SOURCE_LENGTH));
+        } finally {
+            indexFile.delete();
+        }
+    }
+
+    @Test
+    public void damagedItem() throws IOException {
+        // The last string of the pool is the website of the last item, cut it off
+        ByteBuffer data = build();
+        data.limit(data.limit() - 1);
+        ByteBuffer damaged = data.slice();
+
+        SensitivePnIndex index = new SensitivePnIndex(damaged.duplicate());
+        int list = index.getListForMcc("262");
+        assertEquals("116117", index.getNumber(list, 1));
+        assertNull(index.getField(list, 1, SensitivePnIndex.FIELD_WEBSITE));
+
+        File indexFile = newIndexFile();
+        try {
+            assertFalse(SensitivePnIndex.write(indexFile, damaged));
+            assertFalse(indexFile.exists());
+        } finally {
+            indexFile.delete();
+        }
+    }
+
+    @Test(expected = IOException.class)
+    public void damagedTables() throws IOException {
+        ByteBuffer data = build();
+        // Item count of the header
+        data.putInt(32, Integer.MAX_VALUE);
+        new SensitivePnIndex(data);
+    }
+
+    private static ByteBuffer build() {
+        SensitivePnIndex.Builder builder = new SensitivePnIndex.Builder();
+        builder.startSource();
+        builder.startList(new String[] { "262", "263" });
+        builder.addItem("110", "Polizei", "0", null, null, null);
+        builder.addItem("116117", "Bereitschaftsdienst", "1", "de", null,
+                "https://www.116117.de");
+        return builder.build(SOURCE_STAMP, SOURCE_LENGTH);
+    }
+
+    private static File newIndexFile() throws IOException {
+        File indexFile = File.createTempFile("spn", ".idx");
+        indexFile.delete();
+        return indexFile;
+    }
+}
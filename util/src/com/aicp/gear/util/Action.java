@@ -22,34 +22,37 @@ import android.app.SearchManager;
 import android.content.ActivityNotFoundException;
 import android.content.Context;
 import android.content.Intent;
-import android.hardware.input.InputManager;
 import android.media.AudioManager;
 import android.media.session.MediaSessionLegacyHelper;
-import android.media.ToneGenerator;
 import android.net.Uri;
 import android.os.PowerManager;
 import android.os.RemoteException;
-import android.os.ServiceManager;
 import android.os.SystemClock;
 import android.os.UserHandle;
-import android.os.Vibrator;
 import android.provider.Settings;
 import android.provider.MediaStore;
 import android.util.Log;
-import android.view.InputDevice;
-import android.view.KeyCharacterMap;
 import android.view.KeyEvent;
-import android.view.WindowManagerGlobal;
-
-import com.android.internal.statusbar.IStatusBarService;
+import android.view.IWindowManager;
 
+import java.io.PrintWriter;
 import java.net.URISyntaxException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Future;
 
 public class Action {
 
     private static final int MSG_INJECT_KEY_DOWN = 1066;
     private static final int MSG_INJECT_KEY_UP = 1067;
 
+    // Action id -> handler, anything else is a custom intent uri
+    private static final ConcurrentHashMap<String, ActionHandler> sActionHandlers =
+            new ConcurrentHashMap<>();
+
+    static {
+        registerBuiltinActions();
+    }
+
     public static void processAction(Context context, String action, boolean isLongpress) {
         processActionWithOptions(context, action, isLongpress, true);
     }
@@ -61,168 +64,185 @@ public class Action {
                 return;
             }
 
-            boolean isKeyguardShowing = false;
-            try {
-                isKeyguardShowing =
-                        WindowManagerGlobal.getWindowManagerService().isKeyguardLocked();
-            } catch (RemoteException e) {
-                Log.w("Action", "Error getting window manager service", e);
+            // process the actions, services and the keyguard state are only looked up
+            // by the actions using them
+            ActionContext actionContext = new ActionContext(context);
+            ActionHandler handler = sActionHandlers.get(action);
+            if (handler != null) {
+                handler.handleAction(actionContext, action, isLongpress);
+                return;
             }
 
-            IStatusBarService barService = IStatusBarService.Stub.asInterface(
-                    ServiceManager.getService(Context.STATUS_BAR_SERVICE));
-            if (barService == null) {
-                return; // ouch
+            // we must have a custom uri
+            Intent intent = null;
+            try {
+                intent = IntentCache.parseUri(action);
+            } catch (URISyntaxException e) {
+                Log.e("SlimActions:", "URISyntaxException: [" + action + "]");
+                return;
             }
+            startActivity(actionContext, intent);
+    }
 
-            // process the actions
-            if (action.equals(ActionConstants.ACTION_HOME)) {
-                triggerVirtualKeypress(KeyEvent.KEYCODE_HOME, isLongpress);
-                return;
-            } else if (action.equals(ActionConstants.ACTION_BACK)) {
-                triggerVirtualKeypress(KeyEvent.KEYCODE_BACK, isLongpress);
-                return;
-            } else if (action.equals(ActionConstants.ACTION_SEARCH)) {
-                triggerVirtualKeypress(KeyEvent.KEYCODE_SEARCH, isLongpress);
-                return;
-            } else if (action.equals(ActionConstants.ACTION_MENU)
-                    || action.equals(ActionConstants.ACTION_MENU_BIG)) {
-                triggerVirtualKeypress(KeyEvent.KEYCODE_MENU, isLongpress);
-                return;
-            } else if (action.equals(ActionConstants.ACTION_IME_NAVIGATION_LEFT)) {
-                triggerVirtualKeypress(KeyEvent.KEYCODE_DPAD_LEFT, isLongpress);
-                return;
-            } else if (action.equals(ActionConstants.ACTION_IME_NAVIGATION_RIGHT)) {
-                triggerVirtualKeypress(KeyEvent.KEYCODE_DPAD_RIGHT, isLongpress);
-                return;
-            } else if (action.equals(ActionConstants.ACTION_IME_NAVIGATION_UP)) {
-                triggerVirtualKeypress(KeyEvent.KEYCODE_DPAD_UP, isLongpress);
-                return;
-            } else if (action.equals(ActionConstants.ACTION_IME_NAVIGATION_DOWN)) {
-                triggerVirtualKeypress(KeyEvent.KEYCODE_DPAD_DOWN, isLongpress);
-                return;
-            } else if (action.equals(ActionConstants.ACTION_POWER)) {
-                PowerManager pm = (PowerManager) context.getSystemService(Context.POWER_SERVICE);
-                pm.goToSleep(SystemClock.uptimeMillis());
-                return;
-            } else if (action.equals(ActionConstants.ACTION_IME)) {
-                if (isKeyguardShowing) {
-                    return;
-                }
-                context.sendBroadcastAsUser(
-                        new Intent("android.settings.SHOW_INPUT_METHOD_PICKER"),
-                        new UserHandle(UserHandle.USER_CURRENT));
-                return;
-            } else if (action.equals(ActionConstants.ACTION_VOICE_SEARCH)) {
-                // launch the search activity
-                Intent intent = new Intent(Intent.ACTION_SEARCH_LONG_PRESS);
-                intent.setFlags(Intent.FLAG_ACTIVITY_NEW_TASK);
-                try {
-                    // TODO: This only stops the factory-installed search manager.
-                    // Need to formalize an API to handle others
-                    SearchManager searchManager =
-                            (SearchManager) context.getSystemService(Context.SEARCH_SERVICE);
-                    if (searchManager != null) {
-                        searchManager.stopSearch();
-                    }
-                    startActivity(context, intent, barService, isKeyguardShowing);
-                } catch (ActivityNotFoundException e) {
-                    Log.e("SlimActions:", "No activity to handle assist long press action.", e);
-                }
-                return;
-            } else if (action.equals(ActionConstants.ACTION_VIB)) {
-                AudioManager am = (AudioManager) context.getSystemService(Context.AUDIO_SERVICE);
-                if(am != null && ActivityManagerNative.isSystemReady()) {
-                    if(am.getRingerMode() != AudioManager.RINGER_MODE_VIBRATE) {
-                        am.setRingerMode(AudioManager.RINGER_MODE_VIBRATE);
-                        Vibrator vib = (Vibrator) context.getSystemService(Context.VIBRATOR_SERVICE);
-                        if(vib != null){
-                            vib.vibrate(50);
-                        }
-                    }else{
-                        am.setRingerMode(AudioManager.RINGER_MODE_NORMAL);
-                        ToneGenerator tg = new ToneGenerator(
-                                AudioManager.STREAM_NOTIFICATION,
-                                (int)(ToneGenerator.MAX_VOLUME * 0.85));
-                        if(tg != null){
-                            tg.startTone(ToneGenerator.TONE_PROP_BEEP);
-                        }
-                    }
-                }
+    /**
+     * Like {@link #processActionWithOptions}, but runs the action on a dedicated thread
+     * instead of the calling one. Actions run in the order they were submitted.
+     *
+     * @return a future completing once the action has been processed
+     */
+    public static Future<Void> processActionAsync(final Context context,
+            final String action, final boolean isLongpress, final boolean collapseShade) {
+        return ActionExecutor.getInstance().submit(action, () ->
+                processActionWithOptions(context, action, isLongpress, collapseShade));
+    }
+
+    /**
+     * Prints the queue statistics of {@link #processActionAsync}.
+     */
+    public static void dump(PrintWriter pw) {
+        ActionExecutor.getInstance().dump(pw);
+    }
+
+    /**
+     * Registers the handler of an action id, replacing any handler registered before,
+     * including the built-in ones. Action ids without a handler are treated as custom
+     * intent uris.
+     *
+     * @return the handler registered before, or null
+     */
+    public static ActionHandler registerActionHandler(String action, ActionHandler handler) {
+        return sActionHandlers.put(action, handler);
+    }
+
+    /**
+     * @return the handler registered before, or null
+     */
+    public static ActionHandler unregisterActionHandler(String action) {
+        return sActionHandlers.remove(action);
+    }
+
+    private static void registerKeyAction(String action, final int keyCode) {
+        sActionHandlers.put(action, (context, a, isLongpress) ->
+                triggerVirtualKeypress(keyCode, isLongpress));
+    }
+
+    private static void registerMediaKeyAction(String action, final int keyCode) {
+        sActionHandlers.put(action, (context, a, isLongpress) ->
+                dispatchMediaKeyWithWakeLock(keyCode, context.getContext()));
+    }
+
+    private static void registerBuiltinActions() {
+        registerKeyAction(ActionConstants.ACTION_HOME, KeyEvent.KEYCODE_HOME);
+        registerKeyAction(ActionConstants.ACTION_BACK, KeyEvent.KEYCODE_BACK);
+        registerKeyAction(ActionConstants.ACTION_SEARCH, KeyEvent.KEYCODE_SEARCH);
+        registerKeyAction(ActionConstants.ACTION_MENU, KeyEvent.KEYCODE_MENU);
+        registerKeyAction(ActionConstants.ACTION_MENU_BIG, KeyEvent.KEYCODE_MENU);
+        registerKeyAction(ActionConstants.ACTION_IME_NAVIGATION_LEFT, KeyEvent.KEYCODE_DPAD_LEFT);
+        registerKeyAction(ActionConstants.ACTION_IME_NAVIGATION_RIGHT,
+                KeyEvent.KEYCODE_DPAD_RIGHT);
+        registerKeyAction(ActionConstants.ACTION_IME_NAVIGATION_UP, KeyEvent.KEYCODE_DPAD_UP);
+        registerKeyAction(ActionConstants.ACTION_IME_NAVIGATION_DOWN, KeyEvent.KEYCODE_DPAD_DOWN);
+
+        registerMediaKeyAction(ActionConstants.ACTION_MEDIA_PREVIOUS,
+                KeyEvent.KEYCODE_MEDIA_PREVIOUS);
+        registerMediaKeyAction(ActionConstants.ACTION_MEDIA_NEXT, KeyEvent.KEYCODE_MEDIA_NEXT);
+        registerMediaKeyAction(ActionConstants.ACTION_MEDIA_PLAY_PAUSE,
+                KeyEvent.KEYCODE_MEDIA_PLAY_PAUSE);
+
+        sActionHandlers.put(ActionConstants.ACTION_POWER,
+                (context, action, isLongpress) -> {
+            PowerManager pm = context.getPowerManager();
+            pm.goToSleep(SystemClock.uptimeMillis());
+        });
+
+        sActionHandlers.put(ActionConstants.ACTION_IME,
+                (context, action, isLongpress) -> {
+            if (context.isKeyguardShowing()) {
                 return;
-            } else if (action.equals(ActionConstants.ACTION_SILENT)) {
-                AudioManager am = (AudioManager) context.getSystemService(Context.AUDIO_SERVICE);
-                if (am != null && ActivityManagerNative.isSystemReady()) {
-                    if (am.getRingerMode() != AudioManager.RINGER_MODE_SILENT) {
-                        am.setRingerMode(AudioManager.RINGER_MODE_SILENT);
-                    } else {
-                        am.setRingerMode(AudioManager.RINGER_MODE_NORMAL);
-                        ToneGenerator tg = new ToneGenerator(
-                                AudioManager.STREAM_NOTIFICATION,
-                                (int)(ToneGenerator.MAX_VOLUME * 0.85));
-                        if (tg != null) {
-                            tg.startTone(ToneGenerator.TONE_PROP_BEEP);
-                        }
-                    }
+            }
+            context.getContext().sendBroadcastAsUser(
+                    new Intent("android.settings.SHOW_INPUT_METHOD_PICKER"),
+                    new UserHandle(UserHandle.USER_CURRENT));
+        });
+
+        sActionHandlers.put(ActionConstants.ACTION_VOICE_SEARCH,
+                (context, action, isLongpress) -> {
+            // launch the search activity
+            Intent intent = new Intent(Intent.ACTION_SEARCH_LONG_PRESS);
+            intent.setFlags(Intent.FLAG_ACTIVITY_NEW_TASK);
+            try {
+                // TODO: This only stops the factory-installed search manager.
+                // Need to formalize an API to handle others
+                SearchManager searchManager =
+                        (SearchManager) context.getContext().getSystemService(
+                                Context.SEARCH_SERVICE);
+                if (searchManager != null) {
+                    searchManager.stopSearch();
                 }
-                return;
-            } else if (action.equals(ActionConstants.ACTION_VIB_SILENT)) {
-                AudioManager am = (AudioManager) context.getSystemService(Context.AUDIO_SERVICE);
-                if (am != null && ActivityManagerNative.isSystemReady()) {
-                    if (am.getRingerMode() == AudioManager.RINGER_MODE_NORMAL) {
-                        am.setRingerMode(AudioManager.RINGER_MODE_VIBRATE);
-                        Vibrator vib = (Vibrator) context.getSystemService(Context.VIBRATOR_SERVICE);
-                        if (vib != null) {
-                            vib.vibrate(50);
-                        }
-                    } else if (am.getRingerMode() == AudioManager.RINGER_MODE_VIBRATE) {
-                        am.setRingerMode(AudioManager.RINGER_MODE_SILENT);
-                    } else {
-                        am.setRingerMode(AudioManager.RINGER_MODE_NORMAL);
-                        ToneGenerator tg = new ToneGenerator(
-                                AudioManager.STREAM_NOTIFICATION,
-                                (int)(ToneGenerator.MAX_VOLUME * 0.85));
-                        if (tg != null) {
-                            tg.startTone(ToneGenerator.TONE_PROP_BEEP);
-                        }
-                    }
+                startActivity(context, intent);
+            } catch (ActivityNotFoundException e) {
+                Log.e("SlimActions:", "No activity to handle assist long press action.", e);
+            }
+        });
+
+        sActionHandlers.put(ActionConstants.ACTION_VIB,
+                (context, action, isLongpress) -> {
+            AudioManager am = context.getAudioManager();
+            if(am != null && ActivityManagerNative.isSystemReady()) {
+                if(am.getRingerMode() != AudioManager.RINGER_MODE_VIBRATE) {
+                    am.setRingerMode(AudioManager.RINGER_MODE_VIBRATE);
+                    RingerFeedback.getInstance().vibrate(context.getVibrator());
+                }else{
+                    am.setRingerMode(AudioManager.RINGER_MODE_NORMAL);
+                    RingerFeedback.getInstance().beep();
                 }
-                return;
-            } else if (action.equals(ActionConstants.ACTION_CAMERA)) {
-                // ToDo: Send for secure keyguard secure camera intent.
-                // We need to add support for it first.
-                Intent intent = new Intent(MediaStore.INTENT_ACTION_STILL_IMAGE_CAMERA, null);
-                startActivity(context, intent, barService, isKeyguardShowing);
-                return;
-            } else if (action.equals(ActionConstants.ACTION_MEDIA_PREVIOUS)) {
-                dispatchMediaKeyWithWakeLock(KeyEvent.KEYCODE_MEDIA_PREVIOUS, context);
-                return;
-            } else if (action.equals(ActionConstants.ACTION_MEDIA_NEXT)) {
-                dispatchMediaKeyWithWakeLock(KeyEvent.KEYCODE_MEDIA_NEXT, context);
-                return;
-            } else if (action.equals(ActionConstants.ACTION_MEDIA_PLAY_PAUSE)) {
-                dispatchMediaKeyWithWakeLock(KeyEvent.KEYCODE_MEDIA_PLAY_PAUSE, context);
-                return;
-            } else if (action.equals(ActionConstants.ACTION_WAKE_DEVICE)) {
-                PowerManager powerManager =
-                        (PowerManager) context.getSystemService(Context.POWER_SERVICE);
-                if (!powerManager.isScreenOn()) {
-                    powerManager.wakeUp(SystemClock.uptimeMillis());
+            }
+        });
+
+        sActionHandlers.put(ActionConstants.ACTION_SILENT,
+                (context, action, isLongpress) -> {
+            AudioManager am = context.getAudioManager();
+            if (am != null && ActivityManagerNative.isSystemReady()) {
+                if (am.getRingerMode() != AudioManager.RINGER_MODE_SILENT) {
+                    am.setRingerMode(AudioManager.RINGER_MODE_SILENT);
+                } else {
+                    am.setRingerMode(AudioManager.RINGER_MODE_NORMAL);
+                    RingerFeedback.getInstance().beep();
                 }
-                return;
-            } else {
-                // we must have a custom uri
-                Intent intent = null;
-                try {
-                    intent = Intent.parseUri(action, 0);
-                } catch (URISyntaxException e) {
-                    Log.e("SlimActions:", "URISyntaxException: [" + action + "]");
-                    return;
+            }
+        });
+
+        sActionHandlers.put(ActionConstants.ACTION_VIB_SILENT,
+                (context, action, isLongpress) -> {
+            AudioManager am = context.getAudioManager();
+            if (am != null && ActivityManagerNative.isSystemReady()) {
+                if (am.getRingerMode() == AudioManager.RINGER_MODE_NORMAL) {
+                    am.setRingerMode(AudioManager.RINGER_MODE_VIBRATE);
+                    RingerFeedback.getInstance().vibrate(context.getVibrator());
+                } else if (am.getRingerMode() == AudioManager.RINGER_MODE_VIBRATE) {
+                    am.setRingerMode(AudioManager.RINGER_MODE_SILENT);
+                } else {
+                    am.setRingerMode(AudioManager.RINGER_MODE_NORMAL);
+                    RingerFeedback.getInstance().beep();
                 }
-                startActivity(context, intent, barService, isKeyguardShowing);
-                return;
             }
+        });
 
+        sActionHandlers.put(ActionConstants.ACTION_CAMERA,
+                (context, action, isLongpress) -> {
+            // ToDo: Send for secure keyguard secure camera intent.
+            // We need to add support for it first.
+            Intent intent = new Intent(MediaStore.INTENT_ACTION_STILL_IMAGE_CAMERA, null);
+            startActivity(context, intent);
+        });
+
+        sActionHandlers.put(ActionConstants.ACTION_WAKE_DEVICE,
+                (context, action, isLongpress) -> {
+            PowerManager powerManager = context.getPowerManager();
+            if (!powerManager.isScreenOn()) {
+                powerManager.wakeUp(SystemClock.uptimeMillis());
+            }
+        });
     }
 
     public static boolean isActionKeyEvent(String action) {
@@ -237,12 +257,11 @@ public class Action {
         return false;
     }
 
-    private static void startActivity(Context context, Intent intent,
-            IStatusBarService barService, boolean isKeyguardShowing) {
+    private static void startActivity(ActionContext context, Intent intent) {
         if (intent == null) {
             return;
         }
-        //if (isKeyguardShowing) {
+        //if (context.isKeyguardShowing()) {
             // Have keyguard show the bouncer and launch the activity if the user succeeds.
             //try {
                 //barService.showCustomIntentAfterKeyguard(intent);
@@ -251,16 +270,19 @@ public class Action {
             //}
         //} else {
             // otherwise let us do it here
-            try {
-                WindowManagerGlobal.getWindowManagerService().dismissKeyguard(null, null);
-            } catch (RemoteException e) {
-                Log.w("Action", "Error dismissing keyguard", e);
+            IWindowManager wm = ActionContext.getWindowManagerService();
+            if (wm != null) {
+                try {
+                    wm.dismissKeyguard(null, null);
+                } catch (RemoteException e) {
+                    Log.w("Action", "Error dismissing keyguard", e);
+                }
             }
             intent.addFlags(
                     Intent.FLAG_ACTIVITY_NEW_TASK
                     | Intent.FLAG_ACTIVITY_SINGLE_TOP
                     | Intent.FLAG_ACTIVITY_CLEAR_TOP);
-            context.startActivityAsUser(intent,
+            context.getContext().startActivityAsUser(intent,
                     new UserHandle(UserHandle.USER_CURRENT));
         //}
     }
@@ -276,33 +298,20 @@ public class Action {
     }
 
     public static void triggerVirtualKeypress(final int keyCode, boolean longpress) {
-        InputManager im = InputManager.getInstance();
-        long now = SystemClock.uptimeMillis();
-        int downflags = 0;
-        int upflags = 0;
+        int flags;
         if (keyCode == KeyEvent.KEYCODE_DPAD_LEFT
             || keyCode == KeyEvent.KEYCODE_DPAD_RIGHT
             || keyCode == KeyEvent.KEYCODE_DPAD_UP
             || keyCode == KeyEvent.KEYCODE_DPAD_DOWN) {
-            downflags = upflags = KeyEvent.FLAG_SOFT_KEYBOARD | KeyEvent.FLAG_KEEP_TOUCH_MODE;
+            flags = KeySequenceInjector.FLAGS_SOFT_KEYBOARD;
         } else {
-            downflags = upflags = KeyEvent.FLAG_FROM_SYSTEM | KeyEvent.FLAG_VIRTUAL_HARD_KEY;
-        }
-        if (longpress) {
-            downflags |= KeyEvent.FLAG_LONG_PRESS;
+            flags = KeySequenceInjector.FLAGS_VIRTUAL_HARD_KEY;
         }
+        int downflags = longpress ? flags | KeyEvent.FLAG_LONG_PRESS : flags;
 
-        final KeyEvent downEvent = new KeyEvent(now, now, KeyEvent.ACTION_DOWN,
-                keyCode, 0, 0, KeyCharacterMap.VIRTUAL_KEYBOARD, 0,
-                downflags,
-                InputDevice.SOURCE_KEYBOARD);
-        im.injectInputEvent(downEvent, InputManager.INJECT_INPUT_EVENT_MODE_ASYNC);
-
-        final KeyEvent upEvent = new KeyEvent(now, now, KeyEvent.ACTION_UP,
-                keyCode, 0, 0, KeyCharacterMap.VIRTUAL_KEYBOARD, 0,
-                upflags,
-                InputDevice.SOURCE_KEYBOARD);
-        im.injectInputEvent(upEvent, InputManager.INJECT_INPUT_EVENT_MODE_ASYNC);
+        KeySequenceInjector.getInstance().inject(new KeySequenceInjector.Sequence()
+                .down(keyCode, downflags, 0)
+                .up(keyCode, flags, 0));
     }
 
 }
@@ -24,6 +24,11 @@ public class ActionConfig {
     private String mLongpressActionDescription;
     private String mIconUri;
 
+    // Resolves the descriptions not known yet on first use
+    private ConfigSplitHelper.SummaryResolver mSummaryResolver;
+    private boolean mClickActionDescriptionResolved = true;
+    private boolean mLongpressActionDescriptionResolved = true;
+
     public ActionConfig(String clickAction, String clickActionDescription,
                     String longpressAction, String longpressActionDescription, String iconUri) {
         mClickAction = clickAction;
@@ -33,9 +38,20 @@ public class ActionConfig {
         mIconUri = iconUri;
     }
 
+    ActionConfig(String clickAction, String longpressAction, String iconUri,
+            ConfigSplitHelper.SummaryResolver summaryResolver) {
+        mClickAction = clickAction;
+        mLongpressAction = longpressAction;
+        mIconUri = iconUri;
+        mSummaryResolver = summaryResolver;
+        mClickActionDescriptionResolved = false;
+        // Shortcuts have no longpress action to describe
+        mLongpressActionDescriptionResolved = longpressAction == null;
+    }
+
     @Override
     public String toString() {
-        return mClickActionDescription;
+        return getClickActionDescription();
     }
 
     public String getClickAction() {
@@ -43,6 +59,10 @@ public class ActionConfig {
     }
 
     public String getClickActionDescription() {
+        if (!mClickActionDescriptionResolved) {
+            mClickActionDescription = mSummaryResolver.getSummary(mClickAction);
+            mClickActionDescriptionResolved = true;
+        }
         return mClickActionDescription;
     }
 
@@ -51,6 +71,10 @@ public class ActionConfig {
     }
 
     public String getLongpressActionDescription() {
+        if (!mLongpressActionDescriptionResolved) {
+            mLongpressActionDescription = mSummaryResolver.getSummary(mLongpressAction);
+            mLongpressActionDescriptionResolved = true;
+        }
         return mLongpressActionDescription;
     }
 
@@ -64,6 +88,7 @@ public class ActionConfig {
 
     public void setClickActionDescription(String description) {
         mClickActionDescription = description;
+        mClickActionDescriptionResolved = true;
     }
 
     public void setLongpressAction(String action) {
@@ -72,6 +97,7 @@ public class ActionConfig {
 
     public void setLongpressActionDescription(String description) {
         mLongpressActionDescription = description;
+        mLongpressActionDescriptionResolved = true;
     }
 
     public void setIcon(String iconUri) {
@@ -0,0 +1,163 @@
+/*
+* Copyright (C) 2021 AICP
+*
+* Licensed under the Apache License, Version 2.0 (the "License");
+* you may not use this file except in compliance with the License.
+* You may obtain a copy of the License at
+*
+* http://www.apache.org/licenses/LICENSE-2.0
+*
+* Unless required by applicable law or agreed to in writing, software
+* distributed under the License is distributed on an "AS IS" BASIS,
+* WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+* See the License for the specific language governing permissions and
+* limitations under the License.
+*/
+
+package com.aicp.gear.util;
+
+import android.content.Context;
+import android.media.AudioManager;
+import android.os.IBinder.DeathRecipient;
+import android.os.IInterface;
+import android.os.PowerManager;
+import android.os.RemoteException;
+import android.os.ServiceManager;
+import android.os.Vibrator;
+import android.util.Log;
+import android.view.IWindowManager;
+
+/**
+ * Everything an {@link ActionHandler} may need to perform an action.
+ *
+ * Services are resolved on first use and cached for the whole process, so an action only
+ * pays for the binder calls it actually makes. The binder services are dropped again when
+ * system_server dies. The keyguard state is queried at most once per dispatched action.
+ */
+public final class ActionContext {
+    private static final String TAG = "ActionContext";
+
+    private static IWindowManager sWindowManager;
+
+    // Manager instances of the application context they were created with
+    private static Context sManagerContext;
+    private static PowerManager sPowerManager;
+    private static AudioManager sAudioManager;
+    private static Vibrator sVibrator;
+
+    private static final DeathRecipient sWindowManagerDeathRecipient = new DeathRecipient() {
+        @Override
+        public void binderDied() {
+            synchronized (ActionContext.class) {
+                if (sWindowManager != null) {
+                    sWindowManager.asBinder().unlinkToDeath(this, 0);
+                    sWindowManager = null;
+                }
+            }
+        }
+    };
+
+    private final Context mContext;
+    private Boolean mKeyguardShowing;
+
+    ActionContext(Context context) {
+        mContext = context;
+    }
+
+    public Context getContext() {
+        return mContext;
+    }
+
+    /**
+     * @return whether the keyguard is locked, queried on the first call only
+     */
+    public boolean isKeyguardShowing() {
+        if (mKeyguardShowing == null) {
+            boolean showing = false;
+            IWindowManager wm = getWindowManagerService();
+            if (wm != null) {
+                try {
+                    showing = wm.isKeyguardLocked();
+                } catch (RemoteException e) {
+                    Log.w(TAG, "Error getting window manager service", e);
+                }
+            }
+            mKeyguardShowing = showing;
+        }
+        return mKeyguardShowing;
+    }
+
+    public static IWindowManager getWindowManagerService() {
+        synchronized (ActionContext.class) {
+            if (sWindowManager == null) {
+                sWindowManager = IWindowManager.Stub.asInterface(
+                        ServiceManager.getService(Context.WINDOW_SERVICE));
+                if (!linkToDeath(sWindowManager, sWindowManagerDeathRecipient)) {
+                    sWindowManager = null;
+                }
+            }
+            return sWindowManager;
+        }
+    }
+
+    public PowerManager getPowerManager() {
+        synchronized (ActionContext.class) {
+            checkManagerContext();
+            if (sPowerManager == null) {
+                sPowerManager = (PowerManager) sManagerContext.getSystemService(
+                        Context.POWER_SERVICE);
+            }
+            return sPowerManager;
+        }
+    }
+
+    public AudioManager getAudioManager() {
+        synchronized (ActionContext.class) {
+            checkManagerContext();
+            if (sAudioManager == null) {
+                sAudioManager = (AudioManager) sManagerContext.getSystemService(
+                        Context.AUDIO_SERVICE);
+            }
+            return sAudioManager;
+        }
+    }
+
+    public Vibrator getVibrator() {
+        synchronized (ActionContext.class) {
+            checkManagerContext();
+            if (sVibrator == null) {
+                sVibrator = (Vibrator) sManagerContext.getSystemService(
+                        Context.VIBRATOR_SERVICE);
+            }
+            return sVibrator;
+        }
+    }
+
+    // Callers hold the ActionContext class lock
+    private void checkManagerContext() {
+        Context appContext = mContext.getApplicationContext();
+        if (appContext == null) {
+            appContext = mContext;
+        }
+        if (appContext != sManagerContext) {
+            sManagerContext = appContext;
+            sPowerManager = null;
+            sAudioManager = null;
+            sVibrator = null;
+        }
+    }
+
+    private static boolean linkToDeath(IInterface service, DeathRecipient recipient) {
+        if (service == null) {
+            return false;
+        }
+        try {
+            service.asBinder().linkToDeath(recipient, 0);
+            return true;
+        } catch (RemoteException e) {
+            // Already dead, try again next time
+            Log.w(TAG, "linkToDeath failed", e);
+            return false;
+        }
+    }
+}
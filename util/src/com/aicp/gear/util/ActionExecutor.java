@@ -0,0 +1,103 @@
+/*
+* Copyright (C) 2021 AICP
+*
+* Licensed under the Apache License, Version 2.0 (the "License");
+* you may not use this file except in compliance with the License.
+* You may obtain a copy of the License at
+*
+* http://www.apache.org/licenses/LICENSE-2.0
+*
+* Unless required by applicable law or agreed to in writing, software
+* distributed under the License is distributed on an "AS IS" BASIS,
+* WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+* See the License for the specific language governing permissions and
+* limitations under the License.
+*/
+
+package com.aicp.gear.util;
+
+import android.os.Handler;
+import android.os.HandlerThread;
+import android.os.Process;
+import android.os.SystemClock;
+import android.util.Log;
+
+import java.io.PrintWriter;
+import java.util.concurrent.Future;
+import java.util.concurrent.FutureTask;
+
+/**
+ * Runs actions one after another on a dedicated thread.
+ *
+ * All actions share one queue, so actions are executed in the order they were submitted,
+ * whichever thread submitted them; a key down is never overtaken by its key up.
+ */
+final class ActionExecutor {
+    private static final String TAG = "ActionExecutor";
+    private static final boolean DEBUG = false;
+
+    // Queue latency from which a dispatch is logged as slow
+    private static final long SLOW_DISPATCH_MS = 100;
+
+    private static ActionExecutor sInstance;
+
+    private final Handler mHandler;
+
+    // Guarded by this
+    private long mExecutedCount;
+    private long mTotalLatencyMs;
+    private long mMaxLatencyMs;
+
+    private ActionExecutor() {
+        HandlerThread thread = new HandlerThread(TAG, Process.THREAD_PRIORITY_FOREGROUND);
+        thread.start();
+        mHandler = new Handler(thread.getLooper());
+    }
+
+    static synchronized ActionExecutor getInstance() {
+        if (sInstance == null) {
+            sInstance = new ActionExecutor();
+        }
+        return sInstance;
+    }
+
+    /**
+     * @return a future completing once the action ran, or failed
+     */
+    Future<Void> submit(final String action, final Runnable runnable) {
+        final long queuedAt = SystemClock.uptimeMillis();
+        final FutureTask<Void> task = new FutureTask<Void>(runnable, null) {
+            @Override
+            protected void setException(Throwable t) {
+                Log.e(TAG, "Failed to process action " + action, t);
+                super.setException(t);
+            }
+        };
+        mHandler.post(() -> {
+            recordLatency(action, SystemClock.uptimeMillis() - queuedAt);
+            task.run();
+        });
+        return task;
+    }
+
+    private void recordLatency(String action, long latencyMs) {
+        synchronized (this) {
+            mExecutedCount++;
+            mTotalLatencyMs += latencyMs;
+            mMaxLatencyMs = Math.max(mMaxLatencyMs, latencyMs);
+        }
+        if (latencyMs >= SLOW_DISPATCH_MS) {
+            Log.w(TAG, "Action " + action + " was queued for " + latencyMs + "ms");
+        } else if (DEBUG) {
+            Log.d(TAG, "Action " + action + " was queued for " + latencyMs + "ms");
+        }
+    }
+
+    synchronized void dump(PrintWriter pw) {
+        pw.println(TAG + ":");
+        pw.println("  executed=" + mExecutedCount);
+        pw.println("  averageLatencyMs="
+                + (mExecutedCount > 0 ? mTotalLatencyMs / mExecutedCount : 0));
+        pw.println("  maxLatencyMs=" + mMaxLatencyMs);
+    }
+}
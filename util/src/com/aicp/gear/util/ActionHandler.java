@@ -0,0 +1,31 @@
+/*
+* Copyright (C) 2021 AICP
+*
+* Licensed under the Apache License, Version 2.0 (the "License");
+* you may not use this file except in compliance with the License.
+* You may obtain a copy of the License at
+*
+* http://www.apache.org/licenses/LICENSE-2.0
+*
+* Unless required by applicable law or agreed to in writing, software
+* distributed under the License is distributed on an "AS IS" BASIS,
+* WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+* See the License for the specific language governing permissions and
+* limitations under the License.
+*/
+
+package com.aicp.gear.util;
+
+/**
+ * Performs one of the {@link ActionConstants} actions.
+ *
+ * Handlers are registered with {@link Action#registerActionHandler}, which lets SystemUI
+ * and Settings add actions without touching {@link Action}.
+ */
+public interface ActionHandler {
+    /**
+     * @param context the context of the action, with lazily resolved services
+     * @param action the action id the handler was registered for
+     */
+    public void handleAction(ActionContext context, String action, boolean isLongpress);
+}
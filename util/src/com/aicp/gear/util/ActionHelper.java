@@ -23,6 +23,8 @@ import android.content.pm.ActivityInfo;
 import android.content.pm.PackageManager;
 import android.content.pm.PackageManager.NameNotFoundException;
 import android.content.res.Resources;
+import android.graphics.Bitmap;
+import android.graphics.ImageDecoder;
 import android.graphics.drawable.BitmapDrawable;
 import android.graphics.drawable.Drawable;
 import android.net.Uri;
@@ -32,13 +34,12 @@ import android.util.Log;
 
 import java.io.File;
 import java.io.FileNotFoundException;
+import java.io.IOException;
 import java.net.URISyntaxException;
 import java.util.ArrayList;
 
 public class ActionHelper {
 
-    private static final String SYSTEMUI_METADATA_NAME = "com.android.systemui";
-
     public static ArrayList<ActionConfig> getRecentAppSidebarConfig(Context context) {
         return (ConfigSplitHelper.getActionConfigValues(context,
                 getRecentAppSidebarProvider(context), null, null, false));
@@ -81,6 +82,67 @@ public class ActionHelper {
 
     public static Drawable getActionIconImage(Context context,
             String clickAction, String customIcon, AbstractIconsHandler iconsHandler) {
+        String key = ActionIconCache.keyOf(context, clickAction, customIcon, iconsHandler, 0);
+        Drawable d = ActionIconCache.get(key);
+        if (d == null) {
+            d = loadActionIconImage(context, clickAction, customIcon, iconsHandler, 0);
+            ActionIconCache.put(context, key, clickAction, customIcon, d);
+            // Like cache hits, return a drawable of its own, the cached state stays untouched
+            Drawable.ConstantState state = d != null ? d.getConstantState() : null;
+            if (state != null) {
+                d = state.newDrawable().mutate();
+            }
+        }
+        return d;
+    }
+
+    public interface OnIconLoadedListener {
+        /**
+         * Called on the main thread with the loaded icon, which may be null.
+         */
+        public void onIconLoaded(Drawable icon);
+    }
+
+    /**
+     * Asynchronous variant of {@link #getActionIconImage}, meant for binding views.
+     *
+     * Cached icons are returned right away. Otherwise the icon is loaded in the background,
+     * with custom icon files decoded at the target size, and delivered to the listener; the
+     * placeholder is returned in the meantime.
+     *
+     * The icons handler is called on the background thread, so it must not touch views
+     * or other state owned by the main thread.
+     *
+     * @param targetSize largest dimension of the icon in pixels, or 0 for its full size
+     * @param token identifies the receiver of the icon, usually the view showing it. A new
+     *        request with the same token cancels the previous one. May be null.
+     * @return the cached icon, in which case the listener is not called, or the placeholder
+     */
+    public static Drawable getActionIconImageAsync(Context context,
+            String clickAction, String customIcon, AbstractIconsHandler iconsHandler,
+            int targetSize, Drawable placeholder, Object token,
+            OnIconLoadedListener listener) {
+        String key = ActionIconCache.keyOf(context, clickAction, customIcon, iconsHandler,
+                targetSize);
+        Drawable d = ActionIconCache.get(key);
+        if (d != null) {
+            cancelActionIconRequest(token);
+            return d;
+        }
+        ActionIconLoader.getInstance().load(context, key, clickAction, customIcon,
+                iconsHandler, targetSize, token, listener);
+        return placeholder;
+    }
+
+    /**
+     * Cancels the pending {@link #getActionIconImageAsync} request of the given token.
+     */
+    public static void cancelActionIconRequest(Object token) {
+        ActionIconLoader.getInstance().cancel(token);
+    }
+
+    static Drawable loadActionIconImage(Context context, String clickAction,
+            String customIcon, AbstractIconsHandler iconsHandler, int targetSize) {
         int resId = -1;
         Drawable d = null;
         PackageManager pm = context.getPackageManager();
@@ -88,13 +150,11 @@ public class ActionHelper {
             return null;
         }
 
-        Resources systemUiResources;
-        try {
-            systemUiResources = pm.getResourcesForApplication(SYSTEMUI_METADATA_NAME);
-        } catch (Exception e) {
-            Log.e("ButtonsHelper:", "can't access systemui resources",e);
+        SystemIconTable systemIcons = SystemIconTable.get(context);
+        if (systemIcons == null) {
             return null;
         }
+        Resources systemUiResources = systemIcons.getResources();
 
         if (!clickAction.startsWith("**")) {
             try {
@@ -102,23 +162,21 @@ public class ActionHelper {
                 if (extraIconPath != null && !extraIconPath.isEmpty()) {
                     File f = new File(Uri.parse(extraIconPath).getPath());
                     if (f.exists()) {
-                        d = new BitmapDrawable(context.getResources(),
-                                f.getAbsolutePath());
+                        d = decodeIconFile(context, f, targetSize, false);
                     }
                 }
                 if (d == null) {
+                    Intent intent = IntentCache.parseUri(clickAction);
                     if (iconsHandler != null) {
                         try {
-                            ActivityInfo info = pm.getActivityInfo(Intent.parseUri(clickAction, 0)
-                                    .getComponent(), 0);
+                            ActivityInfo info = pm.getActivityInfo(intent.getComponent(), 0);
                             return iconsHandler.getIconFromHandler(context, info);
                         } catch (PackageManager.NameNotFoundException e) {}
                     }
-                    d = pm.getActivityIcon(Intent.parseUri(clickAction, 0));
+                    d = pm.getActivityIcon(intent);
                 }
             } catch (NameNotFoundException e) {
-                resId = systemUiResources.getIdentifier(
-                    SYSTEMUI_METADATA_NAME + ":drawable/ic_sysbar_null", null, null);
+                resId = systemIcons.getNullIconResId();
                 if (resId > 0) {
                     d = systemUiResources.getDrawable(resId);
                     return d;
@@ -129,7 +187,7 @@ public class ActionHelper {
         }
 
         if (customIcon != null && customIcon.startsWith(ActionConstants.SYSTEM_ICON_IDENTIFIER)) {
-            resId = systemUiResources.getIdentifier(customIcon.substring(
+            resId = ActionIconCache.getIdentifier(systemUiResources, customIcon.substring(
                         ActionConstants.SYSTEM_ICON_IDENTIFIER.length()), "drawable", "android");
             if (resId > 0) {
                 return systemUiResources.getDrawable(resId);
@@ -137,16 +195,13 @@ public class ActionHelper {
         } else if (customIcon != null && !customIcon.equals(ActionConstants.ICON_EMPTY)) {
             File f = new File(Uri.parse(customIcon).getPath());
             if (f.exists()) {
-                return new BitmapDrawable(context.getResources(),
-                    ImageHelper.getRoundedCornerBitmap(
-                        new BitmapDrawable(context.getResources(),
-                        f.getAbsolutePath()).getBitmap()));
+                return decodeIconFile(context, f, targetSize, true);
             } else {
                 Log.e("ActionHelper:", "can't access custom icon image");
                 return null;
             }
         } else if (clickAction.startsWith("**")) {
-            resId = getActionSystemIcon(systemUiResources, clickAction);
+            resId = systemIcons.getIconResId(clickAction);
 
             if (resId > 0) {
                 return systemUiResources.getDrawable(resId);
@@ -155,58 +210,38 @@ public class ActionHelper {
         return d;
     }
 
-    private static int getActionSystemIcon(Resources systemUiResources, String clickAction) {
-        int resId = -1;
+    private static Drawable decodeIconFile(Context context, File f, int targetSize,
+            boolean rounded) {
+        Resources res = context.getResources();
+        if (targetSize <= 0) {
+            BitmapDrawable d = new BitmapDrawable(res, f.getAbsolutePath());
+            return rounded
+                    ? new BitmapDrawable(res, ImageHelper.getRoundedCornerBitmap(d.getBitmap()))
+                    : d;
+        }
 
-        // ToDo: Add the resources to SystemUI.
-        if (clickAction.equals(ActionConstants.ACTION_HOME)) {
-            resId = systemUiResources.getIdentifier(
-                        SYSTEMUI_METADATA_NAME + ":drawable/ic_sysbar_home", null, null);
-        } else if (clickAction.equals(ActionConstants.ACTION_BACK)) {
-            resId = systemUiResources.getIdentifier(
-                        SYSTEMUI_METADATA_NAME + ":drawable/ic_sysbar_back", null, null);
-        } else if (clickAction.equals(ActionConstants.ACTION_RECENTS)) {
-            resId = systemUiResources.getIdentifier(
-                        SYSTEMUI_METADATA_NAME + ":drawable/ic_sysbar_recent", null, null);
-        } else if (clickAction.equals(ActionConstants.ACTION_SEARCH)
-                || clickAction.equals(ActionConstants.ACTION_ASSIST)) {
-            resId = systemUiResources.getIdentifier(
-                        SYSTEMUI_METADATA_NAME + ":drawable/ic_sysbar_search", null, null);
-        } else if (clickAction.equals(ActionConstants.ACTION_KEYGUARD_SEARCH)) {
-            resId = systemUiResources.getIdentifier(
-                        SYSTEMUI_METADATA_NAME + ":drawable/ic_sysbar_search_light", null, null);
-        } else if (clickAction.equals(ActionConstants.ACTION_MENU)) {
-            resId = systemUiResources.getIdentifier(
-                        SYSTEMUI_METADATA_NAME + ":drawable/ic_sysbar_menu", null, null);
-        } else if (clickAction.equals(ActionConstants.ACTION_MENU_BIG)) {
-            resId = systemUiResources.getIdentifier(
-                        SYSTEMUI_METADATA_NAME + ":drawable/ic_sysbar_menu_big", null, null);
-        } else if (clickAction.equals(ActionConstants.ACTION_IME)) {
-            resId = systemUiResources.getIdentifier(
-                        SYSTEMUI_METADATA_NAME + ":drawable/ic_sysbar_ime_switcher", null, null);
-        } else if (clickAction.equals(ActionConstants.ACTION_KILL)) {
-            resId = systemUiResources.getIdentifier(
-                        SYSTEMUI_METADATA_NAME + ":drawable/ic_sysbar_killtask", null, null);
-        } else if (clickAction.equals(ActionConstants.ACTION_POWER)) {
-            resId = systemUiResources.getIdentifier(
-                        SYSTEMUI_METADATA_NAME + ":drawable/ic_sysbar_power", null, null);
-        } else if (clickAction.equals(ActionConstants.ACTION_POWER_MENU)) {
-            resId = systemUiResources.getIdentifier(
-                        SYSTEMUI_METADATA_NAME + ":drawable/ic_sysbar_power_menu", null, null);
-        } else if (clickAction.equals(ActionConstants.ACTION_VIB)) {
-            resId = systemUiResources.getIdentifier(
-                        SYSTEMUI_METADATA_NAME + ":drawable/ic_sysbar_vib", null, null);
-        } else if (clickAction.equals(ActionConstants.ACTION_SILENT)) {
-            resId = systemUiResources.getIdentifier(
-                        SYSTEMUI_METADATA_NAME + ":drawable/ic_sysbar_silent", null, null);
-        } else if (clickAction.equals(ActionConstants.ACTION_VIB_SILENT)) {
-            resId = systemUiResources.getIdentifier(
-                        SYSTEMUI_METADATA_NAME + ":drawable/ic_sysbar_ring_vib_silent", null, null);
-        } else {
-            resId = systemUiResources.getIdentifier(
-                        SYSTEMUI_METADATA_NAME + ":drawable/ic_sysbar_null", null, null);
+        Bitmap bitmap;
+        try {
+            bitmap = ImageDecoder.decodeBitmap(ImageDecoder.createSource(f),
+                    (decoder, info, source) -> {
+                int width = info.getSize().getWidth();
+                int height = info.getSize().getHeight();
+                int size = Math.max(width, height);
+                if (size > targetSize) {
+                    decoder.setTargetSize(Math.max(1, width * targetSize / size),
+                            Math.max(1, height * targetSize / size));
+                }
+                // Rounding the corners draws the bitmap in software
+                if (rounded) {
+                    decoder.setAllocator(ImageDecoder.ALLOCATOR_SOFTWARE);
+                }
+            });
+        } catch (IOException e) {
+            Log.e("ActionHelper:", "can't decode icon image " + f, e);
+            return null;
         }
-        return resId;
+        return new BitmapDrawable(res,
+                rounded ? ImageHelper.getRoundedCornerBitmap(bitmap) : bitmap);
     }
 
 }
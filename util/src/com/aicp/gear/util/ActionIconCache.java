@@ -0,0 +1,240 @@
+/*
+* Copyright (C) 2021 AICP
+*
+* Licensed under the Apache License, Version 2.0 (the "License");
+* you may not use this file except in compliance with the License.
+* You may obtain a copy of the License at
+*
+* http://www.apache.org/licenses/LICENSE-2.0
+*
+* Unless required by applicable law or agreed to in writing, software
+* distributed under the License is distributed on an "AS IS" BASIS,
+* WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+* See the License for the specific language governing permissions and
+* limitations under the License.
+*/
+
+package com.aicp.gear.util;
+
+import android.content.Context;
+import android.content.Intent;
+import android.content.res.Configuration;
+import android.content.res.Resources;
+import android.graphics.Bitmap;
+import android.graphics.drawable.BitmapDrawable;
+import android.graphics.drawable.Drawable;
+import android.net.Uri;
+import android.util.LruCache;
+
+import java.io.File;
+import java.net.URISyntaxException;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Process-wide cache of the action icons returned by {@link ActionHelper}.
+ *
+ * Icons are kept as {@link Drawable.ConstantState}s, so every caller gets its own drawable
+ * while all of them share the same bitmap. The cache is bounded by the approximate size of
+ * the icons in bytes. Resource ids looked up by name are cached as well.
+ *
+ * The icon of an activity is dropped when its package is added, changed or removed, and
+ * the icon of a file when the file was modified since it was decoded. Icons resolved
+ * through an {@link AbstractIconsHandler} are not cached, handlers have no identity that
+ * would stay the same across instances.
+ */
+final class ActionIconCache {
+    private static final int MAX_SIZE_BYTES = 4 * 1024 * 1024;
+
+    // Marks the icon file of an activity action, see ActionHelper.loadActionIconImage
+    private static final String EXTRA_ICON = "hasExtraIcon=";
+
+    private static final File[] NO_FILES = new File[0];
+
+    private static final LruCache<String, Entry> sIcons =
+            new LruCache<String, Entry>(MAX_SIZE_BYTES) {
+        @Override
+        protected int sizeOf(String key, Entry entry) {
+            return entry.mSizeBytes;
+        }
+    };
+
+    // Guarded by itself
+    private static final HashMap<String, Integer> sIdentifiers = new HashMap<>();
+
+    private static final PackageChangeReceiver.Listener sListener =
+            new PackageChangeReceiver.Listener() {
+        @Override
+        public void onPackageChanged(String packageName, int userId) {
+            removePackage(packageName);
+        }
+
+        @Override
+        public void onPackagesChanged(int userId) {
+            clear();
+        }
+    };
+
+    private ActionIconCache() {
+        // This class is not supposed to be instantiated
+    }
+
+    private static final class Entry {
+        final Drawable.ConstantState mState;
+        final int mSizeBytes;
+        // Package of the activity the icon belongs to, or null
+        final String mPackageName;
+        // Files the icon was decoded from and their modification times
+        final File[] mFiles;
+        final long[] mLastModified;
+
+        Entry(Drawable.ConstantState state, int sizeBytes, String packageName, File[] files) {
+            mState = state;
+            mSizeBytes = sizeBytes;
+            mPackageName = packageName;
+            mFiles = files;
+            mLastModified = new long[files.length];
+            for (int i = 0; i < files.length; i++) {
+                mLastModified[i] = files[i].lastModified();
+            }
+        }
+
+        boolean isModified() {
+            for (int i = 0; i < mFiles.length; i++) {
+                if (mFiles[i].lastModified() != mLastModified[i]) {
+                    return true;
+                }
+            }
+            return false;
+        }
+    }
+
+    /**
+     * @return the cache key of an icon, depending on everything the icon is resolved with,
+     *         or null if the icon can't be cached
+     */
+    static String keyOf(Context context, String clickAction, String customIcon,
+            AbstractIconsHandler iconsHandler, int targetSize) {
+        if (iconsHandler != null) {
+            return null;
+        }
+        Configuration config = context.getResources().getConfiguration();
+        return clickAction + ActionConstants.ACTION_DELIMITER
+                + customIcon + ActionConstants.ACTION_DELIMITER
+                + config.densityDpi + ActionConstants.ACTION_DELIMITER
+                + (config.uiMode & Configuration.UI_MODE_NIGHT_MASK)
+                + ActionConstants.ACTION_DELIMITER + targetSize;
+    }
+
+    /**
+     * @return a new drawable sharing the state of the cached icon, or null
+     */
+    static Drawable get(String key) {
+        Entry entry = key != null ? sIcons.get(key) : null;
+        if (entry == null) {
+            return null;
+        }
+        if (entry.isModified()) {
+            sIcons.remove(key);
+            return null;
+        }
+        // Mutate, tinting one icon must not tint every other copy of it
+        return entry.mState.newDrawable().mutate();
+    }
+
+    static void put(Context context, String key, String clickAction, String customIcon,
+            Drawable drawable) {
+        Drawable.ConstantState state = drawable != null ? drawable.getConstantState() : null;
+        if (key == null || state == null) {
+            return;
+        }
+        PackageChangeReceiver.addListener(context, sListener);
+        sIcons.put(key, new Entry(state, sizeOf(drawable), packageOf(clickAction),
+                filesOf(clickAction, customIcon)));
+    }
+
+    private static void removePackage(String packageName) {
+        for (Map.Entry<String, Entry> entry : sIcons.snapshot().entrySet()) {
+            if (packageName.equals(entry.getValue().mPackageName)) {
+                sIcons.remove(entry.getKey());
+            }
+        }
+    }
+
+    private static String packageOf(String clickAction) {
+        if (clickAction == null || clickAction.startsWith("**")) {
+            return null;
+        }
+        try {
+            Intent intent = IntentCache.parseUri(clickAction);
+            return intent.getComponent() != null
+                    ? intent.getComponent().getPackageName() : intent.getPackage();
+        } catch (URISyntaxException e) {
+            return null;
+        }
+    }
+
+    private static File[] filesOf(String clickAction, String customIcon) {
+        String extraIcon = null;
+        if (clickAction != null) {
+            int index = clickAction.indexOf(EXTRA_ICON);
+            if (index >= 0) {
+                extraIcon = clickAction.substring(index + EXTRA_ICON.length());
+            }
+        }
+        if (customIcon != null && (customIcon.equals(ActionConstants.ICON_EMPTY)
+                || customIcon.startsWith(ActionConstants.SYSTEM_ICON_IDENTIFIER))) {
+            customIcon = null;
+        }
+        File extraFile = fileOf(extraIcon);
+        File customFile = fileOf(customIcon);
+        if (extraFile != null && customFile != null) {
+            return new File[] { extraFile, customFile };
+        } else if (extraFile != null || customFile != null) {
+            return new File[] { extraFile != null ? extraFile : customFile };
+        }
+        return NO_FILES;
+    }
+
+    private static File fileOf(String uri) {
+        String path = uri != null && !uri.isEmpty() ? Uri.parse(uri).getPath() : null;
+        return path != null ? new File(path) : null;
+    }
+
+    /**
+     * Cached {@link Resources#getIdentifier}.
+     */
+    static int getIdentifier(Resources res, String name, String defType, String defPackage) {
+        String key = name + ActionConstants.ACTION_DELIMITER + defType
+                + ActionConstants.ACTION_DELIMITER + defPackage;
+        synchronized (sIdentifiers) {
+            Integer resId = sIdentifiers.get(key);
+            if (resId != null) {
+                return resId;
+            }
+        }
+        int resId = res.getIdentifier(name, defType, defPackage);
+        synchronized (sIdentifiers) {
+            sIdentifiers.put(key, resId);
+        }
+        return resId;
+    }
+
+    static void clear() {
+        sIcons.evictAll();
+        synchronized (sIdentifiers) {
+            sIdentifiers.clear();
+        }
+    }
+
+    private static int sizeOf(Drawable drawable) {
+        if (drawable instanceof BitmapDrawable) {
+            Bitmap bitmap = ((BitmapDrawable) drawable).getBitmap();
+            if (bitmap != null) {
+                return bitmap.getAllocationByteCount();
+            }
+        }
+        // Vectors and the like are rendered on demand, count what a bitmap would take
+        return Math.max(1, drawable.getIntrinsicWidth() * drawable.getIntrinsicHeight() * 4);
+    }
+}
@@ -0,0 +1,185 @@
+/*
+* Copyright (C) 2021 AICP
+*
+* Licensed under the Apache License, Version 2.0 (the "License");
+* you may not use this file except in compliance with the License.
+* You may obtain a copy of the License at
+*
+* http://www.apache.org/licenses/LICENSE-2.0
+*
+* Unless required by applicable law or agreed to in writing, software
+* distributed under the License is distributed on an "AS IS" BASIS,
+* WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+* See the License for the specific language governing permissions and
+* limitations under the License.
+*/
+
+package com.aicp.gear.util;
+
+import android.content.Context;
+import android.graphics.drawable.Drawable;
+import android.os.Handler;
+import android.os.HandlerThread;
+import android.os.Looper;
+import android.os.Process;
+
+import java.lang.ref.WeakReference;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.WeakHashMap;
+
+/**
+ * Loads action icons on a background thread for
+ * {@link ActionHelper#getActionIconImageAsync}.
+ *
+ * Requests for the same icon share a single load. Every request may carry a token, usually
+ * the view showing the icon: a new request with the same token cancels the previous one,
+ * so a recycled view never receives the icon of the action it was bound to before.
+ */
+final class ActionIconLoader {
+    private static final String TAG = "ActionIconLoader";
+
+    private static ActionIconLoader sInstance;
+
+    private final Handler mWorkerHandler;
+    private final Handler mMainHandler = new Handler(Looper.getMainLooper());
+
+    // All guarded by this
+    private final HashMap<String, Request> mInFlight = new HashMap<>();
+    private final WeakHashMap<Object, Listener> mListeners = new WeakHashMap<>();
+
+    private ActionIconLoader() {
+        HandlerThread thread = new HandlerThread(TAG, Process.THREAD_PRIORITY_BACKGROUND);
+        thread.start();
+        mWorkerHandler = new Handler(thread.getLooper());
+    }
+
+    static synchronized ActionIconLoader getInstance() {
+        if (sInstance == null) {
+            sInstance = new ActionIconLoader();
+        }
+        return sInstance;
+    }
+
+    void load(Context context, String key, String clickAction, String customIcon,
+            AbstractIconsHandler iconsHandler, int targetSize, Object token,
+            ActionHelper.OnIconLoadedListener callback) {
+        synchronized (this) {
+            if (token != null) {
+                cancelLocked(mListeners.remove(token));
+            }
+            Listener listener = new Listener(token, callback);
+            // Icons without a key can't be told apart, every one is loaded on its own
+            Request request = key != null ? mInFlight.get(key) : null;
+            if (request == null) {
+                request = new Request(context, key, clickAction, customIcon, iconsHandler,
+                        targetSize);
+                if (key != null) {
+                    mInFlight.put(key, request);
+                }
+                mWorkerHandler.post(request);
+            }
+            listener.mRequest = request;
+            request.mListeners.add(listener);
+            if (token != null) {
+                mListeners.put(token, listener);
+            }
+        }
+    }
+
+    synchronized void cancel(Object token) {
+        if (token != null) {
+            cancelLocked(mListeners.remove(token));
+        }
+    }
+
+    private void cancelLocked(Listener listener) {
+        if (listener == null || listener.mCancelled) {
+            return;
+        }
+        listener.mCancelled = true;
+        Request request = listener.mRequest;
+        request.mListeners.remove(listener);
+        // Nobody is waiting for an icon which is not being loaded yet, drop it
+        if (request.mListeners.isEmpty() && !request.mStarted) {
+            if (request.mKey != null) {
+                mInFlight.remove(request.mKey);
+            }
+            mWorkerHandler.removeCallbacks(request);
+        }
+    }
+
+    private void deliver(Listener listener, Drawable icon) {
+        synchronized (this) {
+            if (listener.mCancelled) {
+                return;
+            }
+            Object token = listener.mToken != null ? listener.mToken.get() : null;
+            if (token != null && mListeners.get(token) == listener) {
+                mListeners.remove(token);
+            }
+        }
+        listener.mCallback.onIconLoaded(icon);
+    }
+
+    private static final class Listener {
+        final WeakReference<Object> mToken;
+        final ActionHelper.OnIconLoadedListener mCallback;
+        Request mRequest;
+        boolean mCancelled;
+
+        Listener(Object token, ActionHelper.OnIconLoadedListener callback) {
+            // Weak, the listener is a value of the weak token map
+            mToken = token != null ? new WeakReference<>(token) : null;
+            mCallback = callback;
+        }
+    }
+
+    private final class Request implements Runnable {
+        final Context mContext;
+        final String mKey;
+        final String mClickAction;
+        final String mCustomIcon;
+        final AbstractIconsHandler mIconsHandler;
+        final int mTargetSize;
+        final ArrayList<Listener> mListeners = new ArrayList<>();
+        boolean mStarted;
+
+        Request(Context context, String key, String clickAction, String customIcon,
+                AbstractIconsHandler iconsHandler, int targetSize) {
+            mContext = context;
+            mKey = key;
+            mClickAction = clickAction;
+            mCustomIcon = customIcon;
+            mIconsHandler = iconsHandler;
+            mTargetSize = targetSize;
+        }
+
+        @Override
+        public void run() {
+            synchronized (ActionIconLoader.this) {
+                mStarted = true;
+            }
+            Drawable icon = ActionHelper.loadActionIconImage(mContext, mClickAction,
+                    mCustomIcon, mIconsHandler, mTargetSize);
+            ActionIconCache.put(mContext, mKey, mClickAction, mCustomIcon, icon);
+
+            final ArrayList<Listener> listeners;
+            synchronized (ActionIconLoader.this) {
+                if (mKey != null) {
+                    mInFlight.remove(mKey);
+                }
+                listeners = new ArrayList<>(mListeners);
+            }
+            final Drawable.ConstantState state = icon != null ? icon.getConstantState() : null;
+            mMainHandler.post(() -> {
+                for (int i = 0; i < listeners.size(); i++) {
+                    // Every listener gets a mutable drawable of its own, if the icon
+                    // allows it, the cached state stays untouched
+                    Drawable d = state != null ? state.newDrawable().mutate() : icon;
+                    deliver(listeners.get(i), d);
+                }
+            });
+        }
+    }
+}
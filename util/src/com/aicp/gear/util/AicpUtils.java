@@ -26,24 +26,14 @@ import android.content.pm.PackageManager;
 import android.content.pm.ResolveInfo;
 import android.content.res.Resources;
 import android.graphics.Color;
-import android.hardware.camera2.CameraAccessException;
-import android.hardware.camera2.CameraCharacteristics;
-import android.hardware.camera2.CameraManager;
-import android.hardware.input.InputManager;
-import android.net.ConnectivityManager;
-import android.os.Handler;
-import android.os.Looper;
 import android.os.PowerManager;
 import android.os.RemoteException;
 import android.os.UserHandle;
 import android.os.SystemClock;
-import android.util.Log;
-import android.view.InputDevice;
 import android.view.IWindowManager;
 import android.view.WindowManagerGlobal;
-import android.view.KeyCharacterMap;
-import android.view.KeyEvent;
 
+import java.io.PrintWriter;
 import java.util.List;
 import java.util.Locale;
 import java.util.Objects;
@@ -58,9 +48,7 @@ public class AicpUtils {
     }
 
     public static boolean isWifiOnly(Context context) {
-        ConnectivityManager cm = (ConnectivityManager)context.getSystemService(
-                Context.CONNECTIVITY_SERVICE);
-        return (cm.isNetworkSupported(ConnectivityManager.TYPE_MOBILE) == false);
+        return !SystemQueries.hasCapability(context, DeviceCapabilities.MOBILE_DATA);
     }
 
    /**
@@ -71,20 +59,7 @@ public class AicpUtils {
      * @return Whether the package is installed or not.
      */
     public static boolean isPackageInstalled(Context context, String packageName) {
-        PackageManager pm = context.getPackageManager();
-        try {
-            if (pm != null) {
-                List<ApplicationInfo> packages = pm.getInstalledApplications(0);
-                for (ApplicationInfo packageInfo : packages) {
-                    if (packageInfo.packageName.equals(packageName)) {
-                        return true;
-                    }
-                }
-            }
-        } catch (Exception e) {
-            Log.e(TAG, "Error: " + e.getMessage());
-        }
-        return false;
+        return SystemQueries.isPackageInstalled(context, packageName);
     }
 
     public static boolean isPackageEnabled(String packageName, PackageManager pm) {
@@ -97,47 +72,37 @@ public class AicpUtils {
     }
 
     public static boolean isPackageEnabled(String packageName, Context context) {
-        return isPackageEnabled(packageName, context.getPackageManager());
+        return SystemQueries.isPackageEnabled(context, packageName);
     }
 
     public static boolean isPackageAvailable(String packageName, Context context) {
-        Context mContext = context;
-        final PackageManager pm = mContext.getPackageManager();
-        try {
-            pm.getPackageInfo(packageName, PackageManager.GET_ACTIVITIES);
-            int enabled = pm.getApplicationEnabledSetting(packageName);
-            return enabled != PackageManager.COMPONENT_ENABLED_STATE_DISABLED &&
-                enabled != PackageManager.COMPONENT_ENABLED_STATE_DISABLED_USER;
-        } catch (PackageManager.NameNotFoundException e) {
-            return false;
-        }
+        return SystemQueries.isPackageAvailable(context, packageName);
     }
 
     /**
      * Checks if a specific service is running.
      *
+     * The answer comes from a snapshot of the running services. A service that was just
+     * started may be reported as not running for a quarter of a second, one that was just
+     * stopped as running for up to two seconds, unless {@link #invalidateRunningServices}
+     * is called.
+     *
      * @param context     The context to retrieve the activity manager
      * @param serviceName The name of the service
      * @return Whether the service is running or not
      */
     public static boolean isServiceRunning(Context context, String serviceName) {
-        ActivityManager activityManager = (ActivityManager) context
-                .getSystemService(Context.ACTIVITY_SERVICE);
-        List<ActivityManager.RunningServiceInfo> services = activityManager
-                .getRunningServices(Integer.MAX_VALUE);
-
-        if (services != null) {
-            for (ActivityManager.RunningServiceInfo info : services) {
-                if (info.service != null) {
-                    if (info.service.getClassName() != null && info.service.getClassName()
-                            .equalsIgnoreCase(serviceName)) {
-                        return true;
-                    }
-                }
-            }
-        }
+        return SystemQueries.isServiceRunning(context, serviceName);
+    }
 
-        return false;
+    /**
+     * Makes the next {@link #isServiceRunning} check ask the system again. Call it after
+     * starting or stopping a service to see the change right away.
+     *
+     * @param context     The context to retrieve the activity manager
+     */
+    public static void invalidateRunningServices(Context context) {
+        SystemQueries.invalidateRunningServices(context);
     }
 
     /**
@@ -147,8 +112,7 @@ public class AicpUtils {
      * @return
      */
     public static boolean hasCamera(final Context context) {
-        final PackageManager pm = context.getPackageManager();
-        return pm != null && pm.hasSystemFeature(PackageManager.FEATURE_CAMERA);
+        return SystemQueries.hasCapability(context, DeviceCapabilities.CAMERA);
     }
 
     /**
@@ -158,30 +122,11 @@ public class AicpUtils {
      * @return
      */
     public static boolean hasFrontCamera(final Context context) {
-        final PackageManager pm = context.getPackageManager();
-        return pm != null && pm.hasSystemFeature(PackageManager.FEATURE_CAMERA_FRONT);
+        return SystemQueries.hasCapability(context, DeviceCapabilities.FRONT_CAMERA);
     }
 
     public static boolean deviceSupportsFlashLight(Context context) {
-        CameraManager cameraManager = (CameraManager) context.getSystemService(
-                Context.CAMERA_SERVICE);
-        try {
-            String[] ids = cameraManager.getCameraIdList();
-            for (String id : ids) {
-                CameraCharacteristics c = cameraManager.getCameraCharacteristics(id);
-                Boolean flashAvailable = c.get(CameraCharacteristics.FLASH_INFO_AVAILABLE);
-                Integer lensFacing = c.get(CameraCharacteristics.LENS_FACING);
-                if (flashAvailable != null
-                        && flashAvailable
-                        && lensFacing != null
-                        && lensFacing == CameraCharacteristics.LENS_FACING_BACK) {
-                    return true;
-                }
-            }
-        } catch (CameraAccessException e) {
-            // Ignore
-        }
-        return false;
+        return SystemQueries.hasCapability(context, DeviceCapabilities.FLASHLIGHT);
     }
 
     /**
@@ -346,28 +291,16 @@ public class AicpUtils {
 */
 
     public static void sendKeycode(int keycode) {
-        long when = SystemClock.uptimeMillis();
-        final KeyEvent evDown = new KeyEvent(when, when, KeyEvent.ACTION_DOWN, keycode, 0,
-                0, KeyCharacterMap.VIRTUAL_KEYBOARD, 0,
-                KeyEvent.FLAG_FROM_SYSTEM | KeyEvent.FLAG_VIRTUAL_HARD_KEY,
-                InputDevice.SOURCE_KEYBOARD);
-        final KeyEvent evUp = KeyEvent.changeAction(evDown, KeyEvent.ACTION_UP);
-
-        final Handler handler = new Handler(Looper.getMainLooper());
-        handler.post(new Runnable() {
-            @Override
-            public void run() {
-                InputManager.getInstance().injectInputEvent(evDown,
-                        InputManager.INJECT_INPUT_EVENT_MODE_ASYNC);
-            }
-        });
-        handler.postDelayed(new Runnable() {
-            @Override
-            public void run() {
-                InputManager.getInstance().injectInputEvent(evUp,
-                        InputManager.INJECT_INPUT_EVENT_MODE_ASYNC);
-            }
-        }, 20);
+        KeySequenceInjector.getInstance().inject(new KeySequenceInjector.Sequence()
+                .press(keycode, KeySequenceInjector.FLAGS_VIRTUAL_HARD_KEY, 20));
+    }
+
+    /**
+     * Dumps the call counts and timings of the package, service and device capability
+     * queries.
+     */
+    public static void dump(PrintWriter pw) {
+        SystemQueries.dump(pw);
     }
 
     public static ActivityInfo getRunningActivityInfo(Context context) {
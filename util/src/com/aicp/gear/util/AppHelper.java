@@ -16,6 +16,7 @@
 
 package com.aicp.gear.util;
 
+import android.content.ComponentName;
 import android.content.Context;
 import android.content.Intent;
 import android.content.pm.ActivityInfo;
@@ -38,27 +39,10 @@ public class AppHelper {
         }
 
         if (values != null && entries != null) {
-            int resIdEntries = -1;
-            int resIdValues = -1;
-
-            resIdEntries = settingsResources.getIdentifier(
-                        SETTINGS_METADATA_NAME + ":array/" + entries, null, null);
-
-            resIdValues = settingsResources.getIdentifier(
-                        SETTINGS_METADATA_NAME + ":array/" + values, null, null);
-
-            if (resIdEntries > 0 && resIdValues > 0) {
-                try {
-                    String[] entriesArray = settingsResources.getStringArray(resIdEntries);
-                    String[] valuesArray = settingsResources.getStringArray(resIdValues);
-                    for (int i = 0; i < valuesArray.length; i++) {
-                        if (action.equals(valuesArray[i])) {
-                            return entriesArray[i];
-                        }
-                    }
-                } catch (Exception e) {
-                    e.printStackTrace();
-                }
+            String entry = LabelCache.getEntry(context, settingsResources,
+                    SETTINGS_METADATA_NAME, values, entries, action);
+            if (entry != null) {
+                return entry;
             }
         }
 
@@ -67,13 +51,21 @@ public class AppHelper {
 
     public static String getFriendlyActivityName(Context context,
             PackageManager pm, Intent intent, boolean labelOnly) {
-        ActivityInfo ai = intent.resolveActivityInfo(pm, PackageManager.GET_ACTIVITIES);
-        String friendlyName = null;
-
-        if (ai != null) {
-            friendlyName = ai.loadLabel(pm).toString();
-            if (friendlyName == null && !labelOnly) {
-                friendlyName = ai.name;
+        // Explicit intents skip resolving the activity when its label is known already
+        ComponentName component = intent.getComponent();
+        String friendlyName = component != null ? LabelCache.getLabel(context, component) : null;
+
+        if (friendlyName == null) {
+            ActivityInfo ai = intent.resolveActivityInfo(pm, PackageManager.GET_ACTIVITIES);
+            if (ai != null) {
+                friendlyName = ai.loadLabel(pm).toString();
+                // Keyed like the lookup, an alias resolves to its target activity
+                if (component != null) {
+                    LabelCache.putLabel(context, component, friendlyName);
+                }
+                if (friendlyName == null && !labelOnly) {
+                    friendlyName = ai.name;
+                }
             }
         }
 
@@ -106,7 +98,7 @@ public class AppHelper {
         }
 
         try {
-            Intent intent = Intent.parseUri(uri, 0);
+            Intent intent = IntentCache.parseUri(uri);
             if (Intent.ACTION_MAIN.equals(intent.getAction())) {
                 return getFriendlyActivityName(context, pm, intent, false);
             }
@@ -123,7 +115,7 @@ public class AppHelper {
             return null;
         }
         try {
-            Intent intent = Intent.parseUri(uri, 0);
+            Intent intent = IntentCache.parseUri(uri);
             String name = intent.getStringExtra(Intent.EXTRA_SHORTCUT_NAME);
             if (name == null || name.startsWith("#Intent;")) {
                 return getFriendlyActivityName(context, pm, intent, false);
@@ -22,77 +22,117 @@ import android.content.res.Resources;
 import android.util.Log;
 
 import java.util.ArrayList;
+import java.util.Iterator;
 
 public class ConfigSplitHelper {
 
     private static final String SETTINGS_METADATA_NAME = "com.android.settings";
 
+    private static final char DELIMITER = ActionConstants.ACTION_DELIMITER.charAt(0);
+
     public static ArrayList<ActionConfig> getActionConfigValues(Context context, String config,
                 String values, String entries, boolean isShortcut) {
-        // init vars to fill with them later the config values
-        int counter = 0;
         ArrayList<ActionConfig> actionConfigList = new ArrayList<ActionConfig>();
-        ActionConfig actionConfig = null;
-
-        PackageManager pm = context.getPackageManager();
-        Resources settingsResources = null;
-        try {
-            settingsResources = pm.getResourcesForApplication(SETTINGS_METADATA_NAME);
-        } catch (Exception e) {
-            Log.e("ConfigSplitHelper", "can't access settings resources",e);
-        }
-
-        // Split out the config to work with and add to the list
-        for (String configValue : config.split("\\" + ActionConstants.ACTION_DELIMITER)) {
-            counter++;
-            if (counter == 1) {
-                actionConfig = new ActionConfig(configValue,
-                            AppHelper.getProperSummary(context, pm, settingsResources,
-                            configValue, values, entries), null, null, null);
-            }
-            if (counter == 2) {
-                if (isShortcut) {
-                    actionConfig.setIcon(configValue);
-                    actionConfigList.add(actionConfig);
-                    //reset counter due that shortcut iteration of one action is finished
-                    counter = 0;
-                } else {
-                    actionConfig.setLongpressAction(configValue);
-                    actionConfig.setLongpressActionDescription(
-                            AppHelper.getProperSummary(context, pm, settingsResources,
-                            configValue, values, entries));
-                }
-            }
-            if (counter == 3) {
-                actionConfig.setIcon(configValue);
-                actionConfigList.add(actionConfig);
-                //reset counter due that iteration of full config action is finished
-                counter = 0;
-            }
+        for (ActionConfig actionConfig : parseActionConfigValues(context, config,
+                values, entries, isShortcut)) {
+            actionConfigList.add(actionConfig);
         }
-
         return actionConfigList;
     }
 
+    /**
+     * Parses the config while iterating, in a single pass over the string.
+     *
+     * The descriptions of the returned configs are resolved when they are first asked for,
+     * so callers only interested in the actions never load Settings' resources.
+     */
+    public static Iterable<ActionConfig> parseActionConfigValues(Context context,
+            final String config, String values, String entries, final boolean isShortcut) {
+        final SummaryResolver resolver = new SummaryResolver(context, values, entries);
+        return () -> new ActionConfigIterator(config, isShortcut, resolver);
+    }
+
     public static String setActionConfig(
             ArrayList<ActionConfig> actionConfigs, boolean isShortcut) {
-        String finalConfig = "";
+        StringBuilder finalConfig = new StringBuilder(actionConfigs.size() * 64);
         ActionConfig actionConfig;
 
         for (int i = 0; i < actionConfigs.size(); i++) {
             if (i != 0) {
-                finalConfig += ActionConstants.ACTION_DELIMITER;
+                finalConfig.append(DELIMITER);
             }
             actionConfig = actionConfigs.get(i);
-            finalConfig += actionConfig.getClickAction() + ActionConstants.ACTION_DELIMITER;
+            finalConfig.append(actionConfig.getClickAction()).append(DELIMITER);
             if (!isShortcut) {
-                finalConfig += actionConfig.getLongpressAction()
-                    + ActionConstants.ACTION_DELIMITER;
+                finalConfig.append(actionConfig.getLongpressAction()).append(DELIMITER);
             }
-            finalConfig += actionConfig.getIcon();
+            finalConfig.append(actionConfig.getIcon());
+        }
+
+        return finalConfig.toString();
+    }
+
+    /**
+     * Turns the groups of click action, longpress action (unless it is a shortcut config)
+     * and icon of a config into action configs.
+     */
+    private static final class ActionConfigIterator implements Iterator<ActionConfig> {
+        private final ConfigTokenizer mTokenizer;
+        private final boolean mIsShortcut;
+        private final SummaryResolver mResolver;
+
+        ActionConfigIterator(String config, boolean isShortcut, SummaryResolver resolver) {
+            mTokenizer = new ConfigTokenizer(config, DELIMITER, isShortcut ? 2 : 3);
+            mIsShortcut = isShortcut;
+            mResolver = resolver;
+        }
+
+        @Override
+        public boolean hasNext() {
+            return mTokenizer.hasNext();
         }
 
-        return finalConfig;
+        @Override
+        public ActionConfig next() {
+            String[] group = mTokenizer.next();
+            return mIsShortcut
+                    ? new ActionConfig(group[0], null, group[1], mResolver)
+                    : new ActionConfig(group[0], group[1], group[2], mResolver);
+        }
+    }
+
+    /**
+     * Looks up action descriptions for one config, loading Settings' resources on first use.
+     */
+    static final class SummaryResolver {
+        private final Context mContext;
+        private final String mValues;
+        private final String mEntries;
+        private PackageManager mPm;
+        private Resources mSettingsResources;
+        private boolean mInitialized;
+
+        SummaryResolver(Context context, String values, String entries) {
+            // The configs hold on to the resolver, don't let them leak an activity
+            Context appContext = context.getApplicationContext();
+            mContext = appContext != null ? appContext : context;
+            mValues = values;
+            mEntries = entries;
+        }
+
+        String getSummary(String action) {
+            if (!mInitialized) {
+                mPm = mContext.getPackageManager();
+                try {
+                    mSettingsResources = mPm.getResourcesForApplication(SETTINGS_METADATA_NAME);
+                } catch (Exception e) {
+                    Log.e("ConfigSplitHelper", "can't access settings resources",e);
+                }
+                mInitialized = true;
+            }
+            return AppHelper.getProperSummary(mContext, mPm, mSettingsResources,
+                    action, mValues, mEntries);
+        }
     }
 
 }
@@ -0,0 +1,85 @@
+/*
+* Copyright (C) 2021 AICP
+*
+* Licensed under the Apache License, Version 2.0 (the "License");
+* you may not use this file except in compliance with the License.
+* You may obtain a copy of the License at
+*
+* http://www.apache.org/licenses/LICENSE-2.0
+*
+* Unless required by applicable law or agreed to in writing, software
+* distributed under the License is distributed on an "AS IS" BASIS,
+* WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+* See the License for the specific language governing permissions and
+* limitations under the License.
+*/
+
+package com.aicp.gear.util;
+
+import java.util.Iterator;
+import java.util.NoSuchElementException;
+
+/**
+ * Splits a config into groups of a fixed number of fields, in a single pass.
+ *
+ * Fields are split like {@code String.split(regex, -1)}, so trailing empty fields are kept
+ * and a config written by {@link ConfigSplitHelper#setActionConfig} reads back unchanged,
+ * even if its last field is empty. An incomplete last group is dropped. Has no Android
+ * dependencies, so it can be tested on the host.
+ */
+final class ConfigTokenizer implements Iterator<String[]> {
+    private final String mConfig;
+    private final char mDelimiter;
+    private final int mGroupSize;
+    private int mPosition;
+    private String[] mNext;
+
+    ConfigTokenizer(String config, char delimiter, int groupSize) {
+        mConfig = config;
+        mDelimiter = delimiter;
+        mGroupSize = groupSize;
+        mNext = readNext();
+    }
+
+    @Override
+    public boolean hasNext() {
+        return mNext != null;
+    }
+
+    @Override
+    public String[] next() {
+        if (mNext == null) {
+            throw new NoSuchElementException();
+        }
+        String[] next = mNext;
+        mNext = readNext();
+        return next;
+    }
+
+    private String[] readNext() {
+        String[] group = new String[mGroupSize];
+        for (int i = 0; i < mGroupSize; i++) {
+            group[i] = readField();
+            if (group[i] == null) {
+                return null;
+            }
+        }
+        return group;
+    }
+
+    /**
+     * @return the next field, or null at the end of the config
+     */
+    private String readField() {
+        if (mPosition > mConfig.length()) {
+            return null;
+        }
+        int delimiter = mConfig.indexOf(mDelimiter, mPosition);
+        if (delimiter < 0) {
+            delimiter = mConfig.length();
+        }
+        String field = mConfig.substring(mPosition, delimiter);
+        mPosition = delimiter + 1;
+        return field;
+    }
+}
@@ -0,0 +1,262 @@
+/*
+* Copyright (C) 2021 AICP
+*
+* Licensed under the Apache License, Version 2.0 (the "License");
+* you may not use this file except in compliance with the License.
+* You may obtain a copy of the License at
+*
+* http://www.apache.org/licenses/LICENSE-2.0
+*
+* Unless required by applicable law or agreed to in writing, software
+* distributed under the License is distributed on an "AS IS" BASIS,
+* WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+* See the License for the specific language governing permissions and
+* limitations under the License.
+*/
+
+package com.aicp.gear.util;
+
+import android.content.Context;
+import android.content.pm.PackageManager;
+import android.hardware.camera2.CameraAccessException;
+import android.hardware.camera2.CameraCharacteristics;
+import android.hardware.camera2.CameraManager;
+import android.net.ConnectivityManager;
+import android.nfc.NfcAdapter;
+import android.os.AsyncTask;
+import android.os.Build;
+import android.os.SystemProperties;
+import android.os.Vibrator;
+import android.telephony.TelephonyManager;
+import android.util.AtomicFile;
+import android.util.Log;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.atomic.AtomicIntegerArray;
+
+/**
+ * Hardware capabilities of the device, which can not change without a new build.
+ *
+ * Every capability is probed on first use only, from any thread. The results are written
+ * to a small cache file tagged with the build fingerprint, so later processes of the same
+ * build do not probe at all, e.g. Settings screens never wait for the camera HAL.
+ *
+ * Some probes ask services which may not be up early during boot, e.g. the camera list is
+ * empty before the camera providers registered. Their negative answers are only kept once
+ * boot completed and are probed again until then.
+ */
+final class DeviceCapabilities {
+    private static final String TAG = "DeviceCapabilities";
+
+    static final int FLASHLIGHT = 0;
+    static final int VIBRATOR = 1;
+    static final int NFC = 2;
+    static final int GPS = 3;
+    static final int FINGERPRINT = 4;
+    static final int MOBILE_DATA = 5;
+    static final int VOICE_CAPABLE = 6;
+    static final int CAMERA = 7;
+    static final int FRONT_CAMERA = 8;
+    private static final int COUNT = 9;
+
+    private static final String[] NAMES = {
+        "flashlight", "vibrator", "nfc", "gps", "fingerprint", "mobileData", "voiceCapable",
+        "camera", "frontCamera",
+    };
+
+    // Capabilities answered by services rather than by the system features
+    private static final int RUNTIME_PROBES = (1 << FLASHLIGHT) | (1 << VIBRATOR) | (1 << NFC);
+
+    // Probe results, also the characters of the cache file
+    private static final int UNKNOWN = '?';
+    private static final int SUPPORTED = '1';
+    private static final int UNSUPPORTED = '0';
+
+    private static final String CACHE_FILE_NAME = "device_capabilities";
+    // Bumped whenever the layout or the meaning of the cached values changes
+    private static final String CACHE_VERSION = "2";
+
+    private static DeviceCapabilities sInstance;
+
+    private final Context mContext;
+    private final AtomicIntegerArray mValues = new AtomicIntegerArray(COUNT);
+    // Guarded by this, created and read on first use
+    private AtomicFile mCacheFile;
+    private volatile boolean mCacheRead;
+    private volatile boolean mBootCompleted;
+
+    private DeviceCapabilities(Context context) {
+        mContext = context;
+        for (int i = 0; i < COUNT; i++) {
+            mValues.set(i, UNKNOWN);
+        }
+    }
+
+    static synchronized DeviceCapabilities getInstance(Context context) {
+        if (sInstance == null) {
+            Context appContext = context.getApplicationContext();
+            sInstance = new DeviceCapabilities(appContext != null ? appContext : context);
+        }
+        return sInstance;
+    }
+
+    static int getCount() {
+        return COUNT;
+    }
+
+    static String nameOf(int capability) {
+        return NAMES[capability];
+    }
+
+    boolean isSupported(int capability) {
+        int value = mValues.get(capability);
+        if (value == UNKNOWN && !mCacheRead) {
+            readCache();
+            value = mValues.get(capability);
+        }
+        if (value == UNKNOWN) {
+            value = probe(capability);
+            if (value == UNKNOWN || (value == UNSUPPORTED && !isDefinitive(capability))) {
+                // Failed or maybe not up yet, don't remember it
+                return false;
+            }
+            // Racing threads probe the same, only the first one writes the cache
+            if (mValues.compareAndSet(capability, UNKNOWN, value)) {
+                AsyncTask.THREAD_POOL_EXECUTOR.execute(this::writeCache);
+            }
+        }
+        return value == SUPPORTED;
+    }
+
+    private int probe(int capability) {
+        final PackageManager pm = mContext.getPackageManager();
+        switch (capability) {
+            case FLASHLIGHT:
+                return probeFlashLight();
+            case VIBRATOR:
+                Vibrator vibrator = (Vibrator) mContext.getSystemService(
+                        Context.VIBRATOR_SERVICE);
+                return valueOf(vibrator != null && vibrator.hasVibrator());
+            case NFC:
+                return valueOf(NfcAdapter.getDefaultAdapter(mContext) != null);
+            case GPS:
+                return valueOf(pm.hasSystemFeature(PackageManager.FEATURE_LOCATION_GPS));
+            case FINGERPRINT:
+                return valueOf(pm != null
+                        && pm.hasSystemFeature(PackageManager.FEATURE_FINGERPRINT));
+            case MOBILE_DATA:
+                ConnectivityManager cm = (ConnectivityManager) mContext.getSystemService(
+                        Context.CONNECTIVITY_SERVICE);
+                return valueOf(cm.isNetworkSupported(ConnectivityManager.TYPE_MOBILE));
+            case VOICE_CAPABLE:
+                TelephonyManager telephony = (TelephonyManager) mContext.getSystemService(
+                        Context.TELEPHONY_SERVICE);
+                return valueOf(telephony != null && telephony.isVoiceCapable());
+            case CAMERA:
+                return valueOf(pm != null && pm.hasSystemFeature(PackageManager.FEATURE_CAMERA));
+            case FRONT_CAMERA:
+                return valueOf(pm != null
+                        && pm.hasSystemFeature(PackageManager.FEATURE_CAMERA_FRONT));
+        }
+        throw new IllegalArgumentException("Unknown capability " + capability);
+    }
+
+    private int probeFlashLight() {
+        CameraManager cameraManager = (CameraManager) mContext.getSystemService(
+                Context.CAMERA_SERVICE);
+        try {
+            String[] ids = cameraManager.getCameraIdList();
+            for (String id : ids) {
+                CameraCharacteristics c = cameraManager.getCameraCharacteristics(id);
+                Boolean flashAvailable = c.get(CameraCharacteristics.FLASH_INFO_AVAILABLE);
+                Integer lensFacing = c.get(CameraCharacteristics.LENS_FACING);
+                if (flashAvailable != null
+                        && flashAvailable
+                        && lensFacing != null
+                        && lensFacing == CameraCharacteristics.LENS_FACING_BACK) {
+                    return SUPPORTED;
+                }
+            }
+        } catch (CameraAccessException | AssertionError e) {
+            // The camera service may not be up yet, ask again next time
+            return UNKNOWN;
+        }
+        return UNSUPPORTED;
+    }
+
+    private static int valueOf(boolean supported) {
+        return supported ? SUPPORTED : UNSUPPORTED;
+    }
+
+    /**
+     * @return whether a negative answer of the capability's probe is final
+     */
+    private boolean isDefinitive(int capability) {
+        if ((RUNTIME_PROBES & (1 << capability)) == 0) {
+            return true;
+        }
+        if (!mBootCompleted) {
+            mBootCompleted = SystemProperties.getBoolean("sys.boot_completed", false);
+        }
+        return mBootCompleted;
+    }
+
+    private static String getCacheHeader() {
+        return Build.FINGERPRINT + ':' + CACHE_VERSION;
+    }
+
+    // Callers hold the lock
+    private AtomicFile getCacheFile() {
+        if (mCacheFile == null) {
+            // Device protected, SystemUI asks before the user unlocked
+            mCacheFile = new AtomicFile(new File(mContext
+                    .createDeviceProtectedStorageContext().getCacheDir(), CACHE_FILE_NAME));
+        }
+        return mCacheFile;
+    }
+
+    private synchronized void readCache() {
+        if (mCacheRead) {
+            return;
+        }
+        mCacheRead = true;
+        String content;
+        try {
+            content = new String(getCacheFile().readFully(), StandardCharsets.UTF_8);
+        } catch (IOException e) {
+            // Not written yet
+            return;
+        }
+        int newline = content.indexOf('\n');
+        if (newline < 0 || !getCacheHeader().equals(content.substring(0, newline))) {
+            // Probed by another build
+            return;
+        }
+        for (int i = 0; i < COUNT && newline + 1 + i < content.length(); i++) {
+            int value = content.charAt(newline + 1 + i);
+            if (value == SUPPORTED || value == UNSUPPORTED) {
+                mValues.compareAndSet(i, UNKNOWN, value);
+            }
+        }
+    }
+
+    private synchronized void writeCache() {
+        StringBuilder content = new StringBuilder(getCacheHeader()).append('\n');
+        for (int i = 0; i < COUNT; i++) {
+            content.append((char) mValues.get(i));
+        }
+        AtomicFile cacheFile = getCacheFile();
+        FileOutputStream out = null;
+        try {
+            out = cacheFile.startWrite();
+            out.write(content.toString().getBytes(StandardCharsets.UTF_8));
+            cacheFile.finishWrite(out);
+        } catch (IOException e) {
+            Log.w(TAG, "Can not write " + cacheFile.getBaseFile(), e);
+            cacheFile.failWrite(out);
+        }
+    }
+}
@@ -22,19 +22,14 @@ import android.bluetooth.BluetoothAdapter;
 import android.content.ContentResolver;
 import android.content.Context;
 import android.content.pm.ApplicationInfo;
-import android.content.pm.PackageManager;
+import android.content.res.Configuration;
 import android.content.res.Resources;
 import android.graphics.Point;
 import android.graphics.Rect;
-import android.hardware.camera2.CameraAccessException;
-import android.hardware.camera2.CameraCharacteristics;
-import android.hardware.camera2.CameraManager;
 import android.hardware.display.DisplayManager;
 import android.hardware.display.WifiDisplayStatus;
 import android.net.ConnectivityManager;
-import android.nfc.NfcAdapter;
 import android.provider.Settings;
-import android.os.Vibrator;
 import android.telephony.TelephonyManager;
 import android.util.DisplayMetrics;
 import android.view.DisplayCutout;
@@ -62,6 +57,10 @@ public class DeviceUtils {
 
     private static final int NO_CUTOUT = -1;
 
+    // Last screen type and the configuration it was determined with
+    private static int sScreenType = -1;
+    private static long sScreenTypeConfigKey;
+
     public static boolean deviceSupportsRemoteDisplay(Context ctx) {
         DisplayManager dm = (DisplayManager) ctx.getSystemService(Context.DISPLAY_SERVICE);
         return (dm.getWifiDisplayStatus().getFeatureState()
@@ -75,9 +74,7 @@ public class DeviceUtils {
     }
 
     public static boolean deviceSupportsMobileData(Context context) {
-        ConnectivityManager cm =
-            (ConnectivityManager) context.getSystemService(Context.CONNECTIVITY_SERVICE);
-        return cm.isNetworkSupported(ConnectivityManager.TYPE_MOBILE);
+        return SystemQueries.hasCapability(context, DeviceCapabilities.MOBILE_DATA);
     }
 
     public static boolean deviceSupportsBluetooth() {
@@ -85,7 +82,7 @@ public class DeviceUtils {
     }
 
     public static boolean deviceSupportsNfc(Context context) {
-        return NfcAdapter.getDefaultAdapter(context) != null;
+        return SystemQueries.hasCapability(context, DeviceCapabilities.NFC);
     }
 /*
     public static boolean deviceSupportsLte(Context context) {
@@ -96,7 +93,7 @@ public class DeviceUtils {
     }
 */
     public static boolean deviceSupportsGps(Context context) {
-        return context.getPackageManager().hasSystemFeature(PackageManager.FEATURE_LOCATION_GPS);
+        return SystemQueries.hasCapability(context, DeviceCapabilities.GPS);
     }
 
     public static boolean adbEnabled(ContentResolver resolver) {
@@ -104,8 +101,7 @@ public class DeviceUtils {
     }
 
     public static boolean deviceSupportsVibrator(Context ctx) {
-        Vibrator vibrator = (Vibrator) ctx.getSystemService(Context.VIBRATOR_SERVICE);
-        return vibrator.hasVibrator();
+        return SystemQueries.hasCapability(ctx, DeviceCapabilities.VIBRATOR);
     }
 
     public static boolean deviceSupportsTorch(Context context) {
@@ -123,8 +119,11 @@ public class DeviceUtils {
         FilteredDeviceFeaturesArray filteredDeviceFeaturesArray =
             new FilteredDeviceFeaturesArray();
 
+        // Probe once for the whole array
+        final boolean supportsTorch = deviceSupportsTorch(context);
+        final boolean supportsVibrator = deviceSupportsVibrator(context);
         for (int i = 0; i < valuesArray.length; i++) {
-            if (isSupportedFeature(context, valuesArray[i])) {
+            if (isSupportedFeature(valuesArray[i], supportsTorch, supportsVibrator)) {
                 finalEntries.add(entriesArray[i]);
                 finalValues.add(valuesArray[i]);
             }
@@ -136,13 +135,14 @@ public class DeviceUtils {
         return filteredDeviceFeaturesArray;
     }
 
-    private static boolean isSupportedFeature(Context context, String action) {
+    private static boolean isSupportedFeature(String action, boolean supportsTorch,
+            boolean supportsVibrator) {
         if (action.equals(ActionConstants.ACTION_TORCH)
-                        && !deviceSupportsTorch(context)
+                        && !supportsTorch
                 || action.equals(ActionConstants.ACTION_VIB)
-                        && !deviceSupportsVibrator(context)
+                        && !supportsVibrator
                 || action.equals(ActionConstants.ACTION_VIB_SILENT)
-                        && !deviceSupportsVibrator(context)) {
+                        && !supportsVibrator) {
             return false;
         }
         return true;
@@ -154,19 +154,36 @@ public class DeviceUtils {
     }
 
     private static int getScreenType(Context con) {
+        // The display only changes along with the configuration, e.g. with a new density
+        Configuration config = con.getResources().getConfiguration();
+        long configKey = ((long) config.densityDpi << 32)
+                | (config.smallestScreenWidthDp & 0xffffffffL);
+        synchronized (DeviceUtils.class) {
+            if (sScreenType >= 0 && sScreenTypeConfigKey == configKey) {
+                return sScreenType;
+            }
+        }
+
         WindowManager wm = (WindowManager)con.getSystemService(Context.WINDOW_SERVICE);
         DisplayInfo outDisplayInfo = new DisplayInfo();
         wm.getDefaultDisplay().getDisplayInfo(outDisplayInfo);
         int shortSize = Math.min(outDisplayInfo.logicalHeight, outDisplayInfo.logicalWidth);
         int shortSizeDp =
             shortSize * DisplayMetrics.DENSITY_DEFAULT / outDisplayInfo.logicalDensityDpi;
+        int screenType;
         if (shortSizeDp < 600) {
-            return DEVICE_PHONE;
+            screenType = DEVICE_PHONE;
         } else if (shortSizeDp < 720) {
-            return DEVICE_HYBRID;
+            screenType = DEVICE_HYBRID;
         } else {
-            return DEVICE_TABLET;
+            screenType = DEVICE_TABLET;
         }
+
+        synchronized (DeviceUtils.class) {
+            sScreenType = screenType;
+            sScreenTypeConfigKey = configKey;
+        }
+        return screenType;
     }
 
     public static boolean isPhone(Context con) {
@@ -185,43 +202,19 @@ public class DeviceUtils {
      * Returns whether the device is voice-capable (meaning, it is also a phone).
      */
     public static boolean isVoiceCapable(Context context) {
-        TelephonyManager telephony =
-                (TelephonyManager) context.getSystemService(Context.TELEPHONY_SERVICE);
-        return telephony != null && telephony.isVoiceCapable();
+        return SystemQueries.hasCapability(context, DeviceCapabilities.VOICE_CAPABLE);
     }
 
     public static boolean isWifiOnly(Context context) {
-        ConnectivityManager cm = (ConnectivityManager)context.getSystemService(
-                Context.CONNECTIVITY_SERVICE);
-        return (cm.isNetworkSupported(ConnectivityManager.TYPE_MOBILE) == false);
+        return !deviceSupportsMobileData(context);
     }
 
     public static boolean deviceSupportsFingerPrint(Context context) {
-        PackageManager pm =
-          (PackageManager) context.getPackageManager();
-        return pm != null && pm.hasSystemFeature(PackageManager.FEATURE_FINGERPRINT);
+        return SystemQueries.hasCapability(context, DeviceCapabilities.FINGERPRINT);
     }
 
     public static boolean deviceSupportsFlashLight(Context context) {
-        CameraManager cameraManager = (CameraManager) context.getSystemService(
-                Context.CAMERA_SERVICE);
-        try {
-            String[] ids = cameraManager.getCameraIdList();
-            for (String id : ids) {
-                CameraCharacteristics c = cameraManager.getCameraCharacteristics(id);
-                Boolean flashAvailable = c.get(CameraCharacteristics.FLASH_INFO_AVAILABLE);
-                Integer lensFacing = c.get(CameraCharacteristics.LENS_FACING);
-                if (flashAvailable != null
-                        && flashAvailable
-                        && lensFacing != null
-                        && lensFacing == CameraCharacteristics.LENS_FACING_BACK) {
-                    return true;
-                }
-            }
-        } catch (CameraAccessException | AssertionError e) {
-            // Ignore
-        }
-        return false;
+        return SystemQueries.hasCapability(context, DeviceCapabilities.FLASHLIGHT);
     }
 
     public static int getCutoutType(Context context) {
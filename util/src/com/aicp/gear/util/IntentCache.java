@@ -0,0 +1,50 @@
+/*
+* Copyright (C) 2021 AICP
+*
+* Licensed under the Apache License, Version 2.0 (the "License");
+* you may not use this file except in compliance with the License.
+* You may obtain a copy of the License at
+*
+* http://www.apache.org/licenses/LICENSE-2.0
+*
+* Unless required by applicable law or agreed to in writing, software
+* distributed under the License is distributed on an "AS IS" BASIS,
+* WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+* See the License for the specific language governing permissions and
+* limitations under the License.
+*/
+
+package com.aicp.gear.util;
+
+import android.content.Intent;
+import android.util.LruCache;
+
+import java.net.URISyntaxException;
+
+/**
+ * Process-wide cache of the intents parsed from custom action uris.
+ *
+ * The cached intents are never handed out; callers get their own copy, which they are
+ * free to modify.
+ */
+final class IntentCache {
+    private static final int MAX_SIZE = 64;
+
+    private static final LruCache<String, Intent> sIntents = new LruCache<>(MAX_SIZE);
+
+    private IntentCache() {
+        // This class is not supposed to be instantiated
+    }
+
+    /**
+     * Same as {@code Intent.parseUri(uri, 0)}, without parsing the same uri twice.
+     */
+    static Intent parseUri(String uri) throws URISyntaxException {
+        Intent intent = sIntents.get(uri);
+        if (intent == null) {
+            intent = Intent.parseUri(uri, 0);
+            sIntents.put(uri, intent);
+        }
+        return new Intent(intent);
+    }
+}
@@ -0,0 +1,227 @@
+/*
+* Copyright (C) 2021 AICP
+*
+* Licensed under the Apache License, Version 2.0 (the "License");
+* you may not use this file except in compliance with the License.
+* You may obtain a copy of the License at
+*
+* http://www.apache.org/licenses/LICENSE-2.0
+*
+* Unless required by applicable law or agreed to in writing, software
+* distributed under the License is distributed on an "AS IS" BASIS,
+* WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+* See the License for the specific language governing permissions and
+* limitations under the License.
+*/
+
+package com.aicp.gear.util;
+
+import android.hardware.input.InputManager;
+import android.os.Handler;
+import android.os.HandlerThread;
+import android.os.Process;
+import android.os.SystemClock;
+import android.view.InputDevice;
+import android.view.KeyCharacterMap;
+import android.view.KeyEvent;
+import android.view.ViewConfiguration;
+
+import java.util.Arrays;
+
+/**
+ * Injects sequences of virtual key events, like chords, long presses and macros, from a
+ * dedicated input thread.
+ *
+ * Every event is injected at the uptime it is due, relative to the start of its sequence,
+ * and sequences are played one after another. Events come from the {@link KeyEvent} pool
+ * and are recycled right after injection; the input manager copies them when it sends
+ * them to the system.
+ */
+public final class KeySequenceInjector {
+    private static final String TAG = "KeySequenceInjector";
+
+    /** Flags of events coming from virtual navigation keys */
+    public static final int FLAGS_VIRTUAL_HARD_KEY =
+            KeyEvent.FLAG_FROM_SYSTEM | KeyEvent.FLAG_VIRTUAL_HARD_KEY;
+    /** Flags of events coming from the on-screen keyboard, e.g. the IME arrow keys */
+    public static final int FLAGS_SOFT_KEYBOARD =
+            KeyEvent.FLAG_SOFT_KEYBOARD | KeyEvent.FLAG_KEEP_TOUCH_MODE;
+
+    private static KeySequenceInjector sInstance;
+
+    private final Handler mHandler;
+    // Uptime at which the last queued sequence ends, guarded by this
+    private long mQueueEnd;
+
+    private KeySequenceInjector() {
+        HandlerThread thread = new HandlerThread(TAG, Process.THREAD_PRIORITY_DISPLAY);
+        thread.start();
+        mHandler = new Handler(thread.getLooper());
+    }
+
+    public static synchronized KeySequenceInjector getInstance() {
+        if (sInstance == null) {
+            sInstance = new KeySequenceInjector();
+        }
+        return sInstance;
+    }
+
+    /**
+     * Queues the sequence, it starts right away or once the sequences queued before ended.
+     * The sequence may be reused or modified afterwards.
+     */
+    public void inject(Sequence sequence) {
+        if (sequence.mCount == 0) {
+            return;
+        }
+        Playback playback = new Playback(sequence);
+        long start;
+        synchronized (this) {
+            start = Math.max(SystemClock.uptimeMillis(), mQueueEnd);
+            mQueueEnd = start + playback.mTimes[playback.mTimes.length - 1];
+        }
+        playback.start(start);
+    }
+
+    /**
+     * Builder of a key sequence. Every step is delayed relative to the previous one.
+     */
+    public static final class Sequence {
+        private int[] mActions = new int[4];
+        private int[] mKeyCodes = new int[4];
+        private int[] mFlags = new int[4];
+        private int[] mRepeats = new int[4];
+        private long[] mDelays = new long[4];
+        private int mCount;
+
+        /**
+         * Adds a single key event.
+         *
+         * @param action {@link KeyEvent#ACTION_DOWN} or {@link KeyEvent#ACTION_UP}
+         * @param repeat repeat count of a down event, 0 for the initial one
+         * @param delayMs time after the previous event
+         */
+        public Sequence add(int action, int keyCode, int flags, int repeat, long delayMs) {
+            if (mCount == mActions.length) {
+                int capacity = mCount * 2;
+                mActions = Arrays.copyOf(mActions, capacity);
+                mKeyCodes = Arrays.copyOf(mKeyCodes, capacity);
+                mFlags = Arrays.copyOf(mFlags, capacity);
+                mRepeats = Arrays.copyOf(mRepeats, capacity);
+                mDelays = Arrays.copyOf(mDelays, capacity);
+            }
+            mActions[mCount] = action;
+            mKeyCodes[mCount] = keyCode;
+            mFlags[mCount] = flags;
+            mRepeats[mCount] = repeat;
+            mDelays[mCount] = Math.max(0, delayMs);
+            mCount++;
+            return this;
+        }
+
+        public Sequence down(int keyCode, int flags, long delayMs) {
+            return add(KeyEvent.ACTION_DOWN, keyCode, flags, 0, delayMs);
+        }
+
+        public Sequence up(int keyCode, int flags, long delayMs) {
+            return add(KeyEvent.ACTION_UP, keyCode, flags, 0, delayMs);
+        }
+
+        /**
+         * Adds a down and up event, the up one following after the given time.
+         */
+        public Sequence press(int keyCode, int flags, long holdMs) {
+            return down(keyCode, flags, 0).up(keyCode, flags, holdMs);
+        }
+
+        /**
+         * Adds a key held for the long press timeout, the way a real key reports it: the
+         * first repeat carries {@link KeyEvent#FLAG_LONG_PRESS}.
+         */
+        public Sequence longPress(int keyCode, int flags) {
+            long timeout = ViewConfiguration.getLongPressTimeout();
+            return down(keyCode, flags, 0)
+                    .add(KeyEvent.ACTION_DOWN, keyCode, flags | KeyEvent.FLAG_LONG_PRESS, 1,
+                            timeout)
+                    .up(keyCode, flags, 0);
+        }
+
+        public int size() {
+            return mCount;
+        }
+
+        public void clear() {
+            mCount = 0;
+        }
+    }
+
+    /**
+     * One queued sequence, posted again for each point in time it has events due.
+     */
+    private final class Playback implements Runnable {
+        private final int[] mActions;
+        private final int[] mKeyCodes;
+        private final int[] mFlags;
+        private final int[] mRepeats;
+        // Offsets from the start of the sequence
+        private final long[] mTimes;
+        private final long[] mDownTimes;
+        private long mStart;
+        private int mNext;
+
+        Playback(Sequence sequence) {
+            int count = sequence.mCount;
+            mActions = Arrays.copyOf(sequence.mActions, count);
+            mKeyCodes = Arrays.copyOf(sequence.mKeyCodes, count);
+            mFlags = Arrays.copyOf(sequence.mFlags, count);
+            mRepeats = Arrays.copyOf(sequence.mRepeats, count);
+            mTimes = new long[count];
+            mDownTimes = new long[count];
+            long time = 0;
+            for (int i = 0; i < count; i++) {
+                time += sequence.mDelays[i];
+                mTimes[i] = time;
+            }
+        }
+
+        void start(long start) {
+            mStart = start;
+            mHandler.postAtTime(this, start + mTimes[0]);
+        }
+
+        @Override
+        public void run() {
+            InputManager im = InputManager.getInstance();
+            long now = SystemClock.uptimeMillis();
+            while (mNext < mActions.length && mStart + mTimes[mNext] <= now) {
+                int i = mNext++;
+                long eventTime = mStart + mTimes[i];
+                long downTime = findDownTime(i, eventTime);
+                mDownTimes[i] = downTime;
+                KeyEvent event = KeyEvent.obtain(downTime, eventTime, mActions[i],
+                        mKeyCodes[i], mRepeats[i], 0, KeyCharacterMap.VIRTUAL_KEYBOARD, 0,
+                        mFlags[i], InputDevice.SOURCE_KEYBOARD, null);
+                im.injectInputEvent(event, InputManager.INJECT_INPUT_EVENT_MODE_ASYNC);
+                event.recycle();
+            }
+            if (mNext < mActions.length) {
+                mHandler.postAtTime(this, mStart + mTimes[mNext]);
+            }
+        }
+
+        /**
+         * Repeats and the up event share the down time of the initial down event.
+         */
+        private long findDownTime(int index, long eventTime) {
+            if (mActions[index] == KeyEvent.ACTION_DOWN && mRepeats[index] == 0) {
+                return eventTime;
+            }
+            for (int i = index - 1; i >= 0; i--) {
+                if (mKeyCodes[i] == mKeyCodes[index] && mActions[i] == KeyEvent.ACTION_DOWN) {
+                    return mDownTimes[i];
+                }
+            }
+            return eventTime;
+        }
+    }
+}
@@ -0,0 +1,147 @@
+/*
+* Copyright (C) 2021 AICP
+*
+* Licensed under the Apache License, Version 2.0 (the "License");
+* you may not use this file except in compliance with the License.
+* You may obtain a copy of the License at
+*
+* http://www.apache.org/licenses/LICENSE-2.0
+*
+* Unless required by applicable law or agreed to in writing, software
+* distributed under the License is distributed on an "AS IS" BASIS,
+* WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+* See the License for the specific language governing permissions and
+* limitations under the License.
+*/
+
+package com.aicp.gear.util;
+
+import android.content.ComponentName;
+import android.content.Context;
+import android.content.res.Resources;
+import android.util.LruCache;
+
+import java.util.HashMap;
+import java.util.Locale;
+
+/**
+ * Process-wide cache of the names {@link AppHelper} shows for actions.
+ *
+ * Activity labels are cached per user, component and locale. Settings' action value and
+ * entry arrays are turned into a value to entry map once per locale. Entries of a package
+ * are dropped as soon as the package changes.
+ */
+final class LabelCache {
+    private static final int MAX_LABELS = 256;
+
+    private static final LruCache<String, String> sLabels = new LruCache<>(MAX_LABELS);
+
+    // Guarded by itself
+    private static final HashMap<String, HashMap<String, String>> sEntryMaps = new HashMap<>();
+
+    private static final PackageChangeReceiver.Listener sListener =
+            new PackageChangeReceiver.Listener() {
+        @Override
+        public void onPackageChanged(String packageName, int userId) {
+            invalidate(packageName);
+        }
+
+        @Override
+        public void onPackagesChanged(int userId) {
+            clear();
+        }
+    };
+
+    private LabelCache() {
+        // This class is not supposed to be instantiated
+    }
+
+    /**
+     * @return the cached label, or null
+     */
+    static String getLabel(Context context, ComponentName component) {
+        PackageChangeReceiver.addListener(context, sListener);
+        return sLabels.get(labelKeyOf(context, component));
+    }
+
+    static void putLabel(Context context, ComponentName component, String label) {
+        if (label != null) {
+            sLabels.put(labelKeyOf(context, component), label);
+        }
+    }
+
+    /**
+     * Looks up the entry of a value, from the values and entries arrays of a package.
+     *
+     * @return the entry, or null if the arrays or the value do not exist
+     */
+    static String getEntry(Context context, Resources res, String packageName,
+            String values, String entries, String value) {
+        PackageChangeReceiver.addListener(context, sListener);
+        String key = packageName + ActionConstants.ACTION_DELIMITER
+                + values + ActionConstants.ACTION_DELIMITER
+                + entries + ActionConstants.ACTION_DELIMITER
+                + getLocale(context).toLanguageTag();
+        HashMap<String, String> entryMap;
+        synchronized (sEntryMaps) {
+            entryMap = sEntryMaps.get(key);
+        }
+        if (entryMap == null) {
+            entryMap = buildEntryMap(res, packageName, values, entries);
+            synchronized (sEntryMaps) {
+                sEntryMaps.put(key, entryMap);
+            }
+        }
+        return entryMap.get(value);
+    }
+
+    private static HashMap<String, String> buildEntryMap(Resources res, String packageName,
+            String values, String entries) {
+        HashMap<String, String> entryMap = new HashMap<>();
+        int resIdEntries = res.getIdentifier(packageName + ":array/" + entries, null, null);
+        int resIdValues = res.getIdentifier(packageName + ":array/" + values, null, null);
+        if (resIdEntries > 0 && resIdValues > 0) {
+            try {
+                String[] entriesArray = res.getStringArray(resIdEntries);
+                String[] valuesArray = res.getStringArray(resIdValues);
+                // Keep the first entry of duplicate values, like the linear scan did
+                for (int i = valuesArray.length - 1; i >= 0; i--) {
+                    entryMap.put(valuesArray[i], entriesArray[i]);
+                }
+            } catch (Exception e) {
+                e.printStackTrace();
+            }
+        }
+        return entryMap;
+    }
+
+    private static void clear() {
+        sLabels.evictAll();
+        synchronized (sEntryMaps) {
+            sEntryMaps.clear();
+        }
+    }
+
+    private static void invalidate(String packageName) {
+        String component = ActionConstants.ACTION_DELIMITER + packageName + "/";
+        for (String key : sLabels.snapshot().keySet()) {
+            if (key.contains(component)) {
+                sLabels.remove(key);
+            }
+        }
+        String prefix = packageName + ActionConstants.ACTION_DELIMITER;
+        synchronized (sEntryMaps) {
+            sEntryMaps.keySet().removeIf(key -> key.startsWith(prefix));
+        }
+    }
+
+    private static String labelKeyOf(Context context, ComponentName component) {
+        return context.getUserId() + ActionConstants.ACTION_DELIMITER
+                + component.flattenToString() + ActionConstants.ACTION_DELIMITER
+                + getLocale(context).toLanguageTag();
+    }
+
+    private static Locale getLocale(Context context) {
+        return context.getResources().getConfiguration().getLocales().get(0);
+    }
+}
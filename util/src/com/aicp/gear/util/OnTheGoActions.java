@@ -46,6 +46,8 @@ public class OnTheGoActions {
         startIntent.setComponent(cn);
         startIntent.setAction("start");
         context.startService(startIntent);
+        // The toggle might have stopped the service
+        SystemQueries.invalidateRunningServices(context);
     }
 
 }
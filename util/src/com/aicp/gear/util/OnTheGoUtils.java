@@ -19,13 +19,7 @@
 
 package com.aicp.gear.util;
 
-import android.app.ActivityManager;
 import android.content.Context;
-import android.content.pm.ApplicationInfo;
-import android.content.pm.PackageManager;
-import android.util.Log;
-
-import java.util.List;
 
 public class OnTheGoUtils {
 
@@ -39,20 +33,7 @@ public class OnTheGoUtils {
      * @return Whether the package is installed or not.
      */
     public static boolean isPackageInstalled(Context context, String packageName) {
-        PackageManager pm = context.getPackageManager();
-        try {
-            if (pm != null) {
-                List<ApplicationInfo> packages = pm.getInstalledApplications(0);
-                for (ApplicationInfo packageInfo : packages) {
-                    if (packageInfo.packageName.equals(packageName)) {
-                        return true;
-                    }
-                }
-            }
-        } catch (Exception e) {
-            Log.e(TAG, "Error: " + e.getMessage());
-        }
-        return false;
+        return SystemQueries.isPackageInstalled(context, packageName);
     }
 
     /**
@@ -63,23 +44,7 @@ public class OnTheGoUtils {
      * @return Whether the service is running or not
      */
     public static boolean isServiceRunning(Context context, String serviceName) {
-        ActivityManager activityManager = (ActivityManager) context
-                .getSystemService(Context.ACTIVITY_SERVICE);
-        List<ActivityManager.RunningServiceInfo> services = activityManager
-                .getRunningServices(Integer.MAX_VALUE);
-
-        if (services != null) {
-            for (ActivityManager.RunningServiceInfo info : services) {
-                if (info.service != null) {
-                    if (info.service.getClassName() != null && info.service.getClassName()
-                            .equalsIgnoreCase(serviceName)) {
-                        return true;
-                    }
-                }
-            }
-        }
-
-        return false;
+        return SystemQueries.isServiceRunning(context, serviceName);
     }
 
     /**
@@ -89,8 +54,7 @@ public class OnTheGoUtils {
      * @return
      */
     public static boolean hasCamera(final Context context) {
-        final PackageManager pm = context.getPackageManager();
-        return pm != null && pm.hasSystemFeature(PackageManager.FEATURE_CAMERA);
+        return SystemQueries.hasCapability(context, DeviceCapabilities.CAMERA);
     }
 
     /**
@@ -100,7 +64,6 @@ public class OnTheGoUtils {
      * @return
      */
     public static boolean hasFrontCamera(final Context context) {
-        final PackageManager pm = context.getPackageManager();
-        return pm != null && pm.hasSystemFeature(PackageManager.FEATURE_CAMERA_FRONT);
+        return SystemQueries.hasCapability(context, DeviceCapabilities.FRONT_CAMERA);
     }
 }
@@ -0,0 +1,152 @@
+/*
+* Copyright (C) 2021 AICP
+*
+* Licensed under the Apache License, Version 2.0 (the "License");
+* you may not use this file except in compliance with the License.
+* You may obtain a copy of the License at
+*
+* http://www.apache.org/licenses/LICENSE-2.0
+*
+* Unless required by applicable law or agreed to in writing, software
+* distributed under the License is distributed on an "AS IS" BASIS,
+* WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+* See the License for the specific language governing permissions and
+* limitations under the License.
+*/
+
+package com.aicp.gear.util;
+
+import android.content.BroadcastReceiver;
+import android.content.Context;
+import android.content.Intent;
+import android.content.IntentFilter;
+import android.net.Uri;
+import android.os.UserHandle;
+import android.util.Log;
+
+import java.util.concurrent.CopyOnWriteArrayList;
+
+/**
+ * The one package broadcast receiver of the process, shared by the package based caches.
+ *
+ * It is registered on first use, for the package broadcasts of all users, or only for those
+ * of the own user if the caller may not listen to other users. Listeners are called on the
+ * main thread.
+ */
+final class PackageChangeReceiver {
+    private static final String TAG = "PackageChangeReceiver";
+
+    interface Listener {
+        /**
+         * A package was added, changed, replaced or removed, or its overlays changed.
+         */
+        void onPackageChanged(String packageName, int userId);
+
+        /**
+         * All packages of a user, or of all users if it is {@link UserHandle#USER_ALL}, may
+         * have changed, e.g. because the user was removed or external storage went away.
+         */
+        void onPackagesChanged(int userId);
+    }
+
+    private static final CopyOnWriteArrayList<Listener> sListeners =
+            new CopyOnWriteArrayList<>();
+
+    // Written with the PackageChangeReceiver class lock held
+    private static volatile boolean sRegistered;
+    private static volatile boolean sAllUsers;
+
+    private static final BroadcastReceiver sReceiver = new BroadcastReceiver() {
+        @Override
+        public void onReceive(Context context, Intent intent) {
+            String action = intent.getAction();
+            if (Intent.ACTION_USER_REMOVED.equals(action)) {
+                int userId = intent.getIntExtra(Intent.EXTRA_USER_HANDLE,
+                        UserHandle.USER_NULL);
+                for (Listener listener : sListeners) {
+                    listener.onPackagesChanged(userId);
+                }
+                return;
+            }
+            if (Intent.ACTION_EXTERNAL_APPLICATIONS_AVAILABLE.equals(action)
+                    || Intent.ACTION_EXTERNAL_APPLICATIONS_UNAVAILABLE.equals(action)) {
+                for (Listener listener : sListeners) {
+                    listener.onPackagesChanged(UserHandle.USER_ALL);
+                }
+                return;
+            }
+            Uri data = intent.getData();
+            String packageName = data != null ? data.getSchemeSpecificPart() : null;
+            if (packageName == null) {
+                return;
+            }
+            int userId = getSendingUserId();
+            for (Listener listener : sListeners) {
+                listener.onPackageChanged(packageName, userId);
+            }
+        }
+    };
+
+    private PackageChangeReceiver() {
+        // This class is not supposed to be instantiated
+    }
+
+    /**
+     * Adds a listener, unless it was added before. Cheap enough to be called on every use
+     * of a cache.
+     */
+    static void addListener(Context context, Listener listener) {
+        if (!sListeners.contains(listener)) {
+            sListeners.addIfAbsent(listener);
+        }
+        if (!sRegistered) {
+            register(context);
+        }
+    }
+
+    /**
+     * @return whether the broadcasts of all users are received, or only those of the own
+     *         user. Only meaningful once a listener was added.
+     */
+    static boolean receivesAllUsers() {
+        return sAllUsers;
+    }
+
+    private static synchronized void register(Context context) {
+        if (sRegistered) {
+            return;
+        }
+        Context appContext = context.getApplicationContext();
+        if (appContext == null) {
+            appContext = context;
+        }
+
+        IntentFilter filter = new IntentFilter();
+        filter.addAction(Intent.ACTION_PACKAGE_ADDED);
+        filter.addAction(Intent.ACTION_PACKAGE_CHANGED);
+        filter.addAction(Intent.ACTION_PACKAGE_REPLACED);
+        filter.addAction(Intent.ACTION_PACKAGE_REMOVED);
+        filter.addAction(Intent.ACTION_OVERLAY_CHANGED);
+        filter.addDataScheme("package");
+
+        IntentFilter otherFilter = new IntentFilter();
+        otherFilter.addAction(Intent.ACTION_USER_REMOVED);
+        otherFilter.addAction(Intent.ACTION_EXTERNAL_APPLICATIONS_AVAILABLE);
+        otherFilter.addAction(Intent.ACTION_EXTERNAL_APPLICATIONS_UNAVAILABLE);
+
+        boolean allUsers = true;
+        try {
+            appContext.registerReceiverAsUser(sReceiver, UserHandle.ALL, filter, null, null);
+            appContext.registerReceiverAsUser(sReceiver, UserHandle.ALL, otherFilter,
+                    null, null);
+        } catch (SecurityException e) {
+            // Not allowed to listen to other users, the packages of the own user suffice
+            Log.w(TAG, "Can not observe packages of all users: " + e.getMessage());
+            appContext.registerReceiver(sReceiver, filter);
+            appContext.registerReceiver(sReceiver, otherFilter);
+            allUsers = false;
+        }
+        sAllUsers = allUsers;
+        sRegistered = true;
+    }
+}
@@ -0,0 +1,194 @@
+/*
+* Copyright (C) 2021 AICP
+*
+* Licensed under the Apache License, Version 2.0 (the "License");
+* you may not use this file except in compliance with the License.
+* You may obtain a copy of the License at
+*
+* http://www.apache.org/licenses/LICENSE-2.0
+*
+* Unless required by applicable law or agreed to in writing, software
+* distributed under the License is distributed on an "AS IS" BASIS,
+* WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+* See the License for the specific language governing permissions and
+* limitations under the License.
+*/
+
+package com.aicp.gear.util;
+
+import android.content.Context;
+import android.content.pm.ApplicationInfo;
+import android.content.pm.PackageManager;
+import android.os.UserHandle;
+import android.util.Log;
+import android.util.SparseArray;
+
+import com.android.internal.annotations.VisibleForTesting;
+
+import java.util.HashMap;
+import java.util.List;
+
+/**
+ * Installed packages of every user, with their enabled state.
+ *
+ * The packages of a user are queried once, on first use, and kept up to date from the
+ * package broadcasts, so checking for a package is a hash lookup instead of a binder call
+ * returning every installed application.
+ */
+final class PackageSnapshot {
+    private static final String TAG = "PackageSnapshot";
+
+    // The flags of the queries this replaces. Unlike MATCH_DISABLED_UNTIL_USED_COMPONENTS,
+    // they keep ApplicationInfo#enabled false for disabled until used packages.
+    private static final int QUERY_FLAGS = 0;
+
+    // Packed with the enabled setting of a package
+    private static final int FLAG_ENABLED = 1 << 16;
+    private static final int ENABLED_SETTING_MASK = FLAG_ENABLED - 1;
+
+    private static PackageSnapshot sInstance;
+
+    private final Context mContext;
+    // Whether the broadcasts of all users are received, or only those of the own user
+    private final boolean mAllUsers;
+    // User id -> package name -> state, the maps are replaced rather than modified
+    private final SparseArray<HashMap<String, Integer>> mPackages = new SparseArray<>();
+    // Guarded by this, counts the changes to mPackages
+    private int mGeneration;
+
+    private final PackageChangeReceiver.Listener mListener =
+            new PackageChangeReceiver.Listener() {
+        @Override
+        public void onPackageChanged(String packageName, int userId) {
+            if (userId >= 0) {
+                updatePackage(packageName, userId);
+            } else {
+                onPackagesChanged(UserHandle.USER_ALL);
+            }
+        }
+
+        @Override
+        public void onPackagesChanged(int userId) {
+            // Query everything again on next use
+            synchronized (PackageSnapshot.this) {
+                if (userId == UserHandle.USER_ALL) {
+                    mPackages.clear();
+                } else {
+                    mPackages.remove(userId);
+                }
+                mGeneration++;
+            }
+        }
+    };
+
+    @VisibleForTesting
+    PackageSnapshot(Context context) {
+        mContext = context;
+        PackageChangeReceiver.addListener(context, mListener);
+        mAllUsers = PackageChangeReceiver.receivesAllUsers();
+    }
+
+    static synchronized PackageSnapshot getInstance(Context context) {
+        if (sInstance == null) {
+            Context appContext = context.getApplicationContext();
+            sInstance = new PackageSnapshot(appContext != null ? appContext : context);
+        }
+        return sInstance;
+    }
+
+    /**
+     * Same as finding the package in {@code getInstalledApplications(0)}.
+     */
+    boolean isInstalled(String packageName, int userId) {
+        return getPackages(userId).containsKey(packageName);
+    }
+
+    /**
+     * Same as {@link ApplicationInfo#enabled}.
+     */
+    boolean isEnabled(String packageName, int userId) {
+        Integer state = getPackages(userId).get(packageName);
+        return state != null && (state & FLAG_ENABLED) != 0;
+    }
+
+    /**
+     * Whether the package is installed and not disabled by the system or the user.
+     */
+    boolean isAvailable(String packageName, int userId) {
+        Integer state = getPackages(userId).get(packageName);
+        if (state == null) {
+            return false;
+        }
+        int enabledSetting = state & ENABLED_SETTING_MASK;
+        return enabledSetting != PackageManager.COMPONENT_ENABLED_STATE_DISABLED
+                && enabledSetting != PackageManager.COMPONENT_ENABLED_STATE_DISABLED_USER;
+    }
+
+    private HashMap<String, Integer> getPackages(int userId) {
+        final int generation;
+        synchronized (this) {
+            HashMap<String, Integer> packages = mPackages.get(userId);
+            if (packages != null) {
+                return packages;
+            }
+            generation = mGeneration;
+        }
+
+        // Query without the lock, concurrent callers must not wait for each other
+        HashMap<String, Integer> packages = new HashMap<>();
+        try {
+            List<ApplicationInfo> apps = mContext.getPackageManager()
+                    .getInstalledApplicationsAsUser(QUERY_FLAGS, userId);
+            for (ApplicationInfo ai : apps) {
+                packages.put(ai.packageName, stateOf(ai));
+            }
+        } catch (Exception e) {
+            // Don't keep the incomplete list, try again next time
+            Log.e(TAG, "Error: " + e.getMessage());
+            return packages;
+        }
+
+        synchronized (this) {
+            HashMap<String, Integer> published = mPackages.get(userId);
+            if (published != null) {
+                // Another caller was faster
+                return published;
+            }
+            // Keep it only if no change was missed meanwhile and updates will reach it
+            if (generation == mGeneration
+                    && (mAllUsers || userId == mContext.getUserId())) {
+                mPackages.put(userId, packages);
+            }
+        }
+        return packages;
+    }
+
+    private void updatePackage(String packageName, int userId) {
+        Integer state = null;
+        try {
+            state = stateOf(mContext.getPackageManager().getApplicationInfoAsUser(
+                    packageName, QUERY_FLAGS, userId));
+        } catch (PackageManager.NameNotFoundException e) {
+            // Removed
+        }
+        synchronized (this) {
+            mGeneration++;
+            HashMap<String, Integer> packages = mPackages.get(userId);
+            if (packages == null) {
+                // Not queried yet, it will be up to date once it is
+                return;
+            }
+            packages = new HashMap<>(packages);
+            if (state != null) {
+                packages.put(packageName, state);
+            } else {
+                packages.remove(packageName);
+            }
+            mPackages.put(userId, packages);
+        }
+    }
+
+    private static int stateOf(ApplicationInfo ai) {
+        return (ai.enabledSetting & ENABLED_SETTING_MASK) | (ai.enabled ? FLAG_ENABLED : 0);
+    }
+}
@@ -0,0 +1,103 @@
+/*
+* Copyright (C) 2021 AICP
+*
+* Licensed under the Apache License, Version 2.0 (the "License");
+* you may not use this file except in compliance with the License.
+* You may obtain a copy of the License at
+*
+* http://www.apache.org/licenses/LICENSE-2.0
+*
+* Unless required by applicable law or agreed to in writing, software
+* distributed under the License is distributed on an "AS IS" BASIS,
+* WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+* See the License for the specific language governing permissions and
+* limitations under the License.
+*/
+
+package com.aicp.gear.util;
+
+import android.media.AudioManager;
+import android.media.ToneGenerator;
+import android.os.Handler;
+import android.os.HandlerThread;
+import android.os.Vibrator;
+import android.util.Log;
+
+/**
+ * Plays the feedback of the ringer mode actions on a background thread.
+ *
+ * A single {@link ToneGenerator} is created on the first beep and released again once no
+ * beep was played for {@link #IDLE_TIMEOUT_MS}, so toggling the ringer repeatedly neither
+ * pays for a new generator each time nor keeps the audio resources forever.
+ */
+final class RingerFeedback {
+    private static final String TAG = "RingerFeedback";
+
+    private static final int TONE_VOLUME = (int) (ToneGenerator.MAX_VOLUME * 0.85);
+    private static final long VIBRATE_DURATION_MS = 50;
+    private static final long IDLE_TIMEOUT_MS = 10000;
+
+    private static RingerFeedback sInstance;
+
+    private final Handler mHandler;
+    // Only accessed on the handler thread
+    private ToneGenerator mToneGenerator;
+
+    private final Runnable mReleaseRunnable = new Runnable() {
+        @Override
+        public void run() {
+            if (mToneGenerator != null) {
+                mToneGenerator.release();
+                mToneGenerator = null;
+            }
+        }
+    };
+
+    private final Runnable mBeepRunnable = new Runnable() {
+        @Override
+        public void run() {
+            mHandler.removeCallbacks(mReleaseRunnable);
+            if (mToneGenerator == null) {
+                try {
+                    mToneGenerator = new ToneGenerator(AudioManager.STREAM_NOTIFICATION,
+                            TONE_VOLUME);
+                } catch (RuntimeException e) {
+                    Log.w(TAG, "Can not create tone generator", e);
+                    return;
+                }
+            }
+            mToneGenerator.startTone(ToneGenerator.TONE_PROP_BEEP);
+            mHandler.postDelayed(mReleaseRunnable, IDLE_TIMEOUT_MS);
+        }
+    };
+
+    private RingerFeedback() {
+        HandlerThread thread = new HandlerThread(TAG);
+        thread.start();
+        mHandler = new Handler(thread.getLooper());
+    }
+
+    static synchronized RingerFeedback getInstance() {
+        if (sInstance == null) {
+            sInstance = new RingerFeedback();
+        }
+        return sInstance;
+    }
+
+    /**
+     * Beeps on the notification stream, as confirmation of the normal ringer mode.
+     */
+    void beep() {
+        mHandler.post(mBeepRunnable);
+    }
+
+    /**
+     * Vibrates briefly, as confirmation of the vibrate ringer mode.
+     */
+    void vibrate(final Vibrator vibrator) {
+        if (vibrator == null) {
+            return;
+        }
+        mHandler.post(() -> vibrator.vibrate(VIBRATE_DURATION_MS));
+    }
+}
@@ -0,0 +1,229 @@
+/*
+* Copyright (C) 2021 AICP
+*
+* Licensed under the Apache License, Version 2.0 (the "License");
+* you may not use this file except in compliance with the License.
+* You may obtain a copy of the License at
+*
+* http://www.apache.org/licenses/LICENSE-2.0
+*
+* Unless required by applicable law or agreed to in writing, software
+* distributed under the License is distributed on an "AS IS" BASIS,
+* WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+* See the License for the specific language governing permissions and
+* limitations under the License.
+*/
+
+package com.aicp.gear.util;
+
+import android.app.ActivityManager;
+import android.app.IUidObserver;
+import android.content.Context;
+import android.os.SystemClock;
+import android.util.Log;
+
+import java.io.PrintWriter;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Locale;
+import java.util.Set;
+
+/**
+ * Class names of the running services, answering whether a service is running from a
+ * local set.
+ *
+ * The set is a snapshot of {@link ActivityManager#getRunningServices}, so answers may be
+ * slightly out of date:
+ *
+ * - A service missing from the snapshot is only trusted for {@link #EVENT_INTERVAL_MS}.
+ *   Starting a service doesn't always cause a uid event, this bounds how long a service
+ *   that was just started is reported as not running.
+ * - A listed service is trusted until the process of one of the listed services goes away
+ *   or crosses the service process state, when a uid observer can be registered, but never
+ *   for longer than {@link #MAX_SNAPSHOT_AGE_MS}. Without the observer the snapshot is
+ *   taken again at most once a second.
+ *
+ * Callers that just stopped a service call {@link #invalidate}.
+ */
+final class RunningServiceTracker {
+    private static final String TAG = "RunningServiceTracker";
+
+    // Without a uid observer
+    private static final long POLL_INTERVAL_MS = 1000;
+    // Shortest time between snapshots while uid events keep coming in, and longest time
+    // a service missing from the snapshot is reported as not running
+    private static final long EVENT_INTERVAL_MS = 250;
+    // Services stopped in a process that keeps running don't cause a uid event, so even
+    // an untouched snapshot is not kept forever
+    private static final long MAX_SNAPSHOT_AGE_MS = 2000;
+
+    private static RunningServiceTracker sInstance;
+
+    private final Context mContext;
+    private final boolean mObserving;
+
+    // Lower case class names, the set is replaced rather than modified
+    private volatile Set<String> mServices = Collections.emptySet();
+    // Sorted uids of the listed services, events of other uids don't affect the snapshot
+    private volatile int[] mUids = new int[0];
+    private volatile long mSnapshotTime = -1;
+    private volatile boolean mStale = true;
+    private int mSnapshotCount;
+
+    // Implements IUidObserver as of Android 11 (R), update along with the platform's AIDL
+    private final IUidObserver mUidObserver = new IUidObserver.Stub() {
+        @Override
+        public void onUidGone(int uid, boolean disabled) {
+            onUidChanged(uid);
+        }
+
+        @Override
+        public void onUidActive(int uid) {
+        }
+
+        @Override
+        public void onUidIdle(int uid, boolean disabled) {
+        }
+
+        @Override
+        public void onUidStateChanged(int uid, int procState, long procStateSeq,
+                int capability) {
+            onUidChanged(uid);
+        }
+
+        @Override
+        public void onUidCachedChanged(int uid, boolean cached) {
+        }
+    };
+
+    private RunningServiceTracker(Context context) {
+        mContext = context;
+
+        boolean observing = false;
+        try {
+            ActivityManager.getService().registerUidObserver(mUidObserver,
+                    ActivityManager.UID_OBSERVER_GONE | ActivityManager.UID_OBSERVER_PROCSTATE,
+                    ActivityManager.PROCESS_STATE_SERVICE, context.getOpPackageName());
+            observing = true;
+        } catch (Exception e) {
+            // Not allowed for this caller, fall back to polling
+            Log.w(TAG, "Unable to observe uids: " + e.getMessage());
+        }
+        mObserving = observing;
+    }
+
+    static synchronized RunningServiceTracker getInstance(Context context) {
+        if (sInstance == null) {
+            Context appContext = context.getApplicationContext();
+            sInstance = new RunningServiceTracker(appContext != null ? appContext : context);
+        }
+        return sInstance;
+    }
+
+    /**
+     * Same as a case insensitive match of the class names of
+     * {@link ActivityManager#getRunningServices}.
+     */
+    boolean isRunning(String serviceName) {
+        if (serviceName == null) {
+            return false;
+        }
+        String name = serviceName.toLowerCase(Locale.ROOT);
+        Boolean running = lookUp(name);
+        if (running != null) {
+            return running;
+        }
+        synchronized (this) {
+            // Another caller might have taken a new snapshot while this one waited
+            running = lookUp(name);
+            if (running != null) {
+                return running;
+            }
+            takeSnapshot();
+            return mServices.contains(name);
+        }
+    }
+
+    /**
+     * Drops the snapshot, e.g. after stopping a service in a process that keeps running.
+     */
+    void invalidate() {
+        mStale = true;
+        mSnapshotTime = -1;
+    }
+
+    /**
+     * @return whether the snapshot lists the service, or null if it is too old to tell
+     */
+    private Boolean lookUp(String name) {
+        long snapshotTime = mSnapshotTime;
+        if (snapshotTime < 0) {
+            return null;
+        }
+        boolean running = mServices.contains(name);
+        long maxAge;
+        if (!running || (mObserving && mStale)) {
+            maxAge = EVENT_INTERVAL_MS;
+        } else {
+            maxAge = mObserving ? MAX_SNAPSHOT_AGE_MS : POLL_INTERVAL_MS;
+        }
+        return SystemClock.elapsedRealtime() - snapshotTime < maxAge ? running : null;
+    }
+
+    private void onUidChanged(int uid) {
+        if (Arrays.binarySearch(mUids, uid) >= 0) {
+            mStale = true;
+        }
+    }
+
+    private void takeSnapshot() {
+        // Clear first, so events during the query mark the new snapshot as stale
+        mStale = false;
+        Set<String> services = new HashSet<>();
+        int[] uids;
+        try {
+            ActivityManager activityManager = (ActivityManager) mContext
+                    .getSystemService(Context.ACTIVITY_SERVICE);
+            List<ActivityManager.RunningServiceInfo> infos = activityManager
+                    .getRunningServices(Integer.MAX_VALUE);
+            uids = new int[infos != null ? infos.size() : 0];
+            int uidCount = 0;
+            if (infos != null) {
+                for (ActivityManager.RunningServiceInfo info : infos) {
+                    if (info.service != null && info.service.getClassName() != null) {
+                        services.add(info.service.getClassName().toLowerCase(Locale.ROOT));
+                        uids[uidCount++] = info.uid;
+                    }
+                }
+            }
+            uids = Arrays.copyOf(uids, uidCount);
+            Arrays.sort(uids);
+        } catch (Exception e) {
+            // Keep answering from the previous snapshot until the next attempt
+            Log.e(TAG, "Error: " + e.getMessage());
+            mSnapshotTime = SystemClock.elapsedRealtime();
+            return;
+        }
+        mUids = uids;
+        mServices = services;
+        mSnapshotTime = SystemClock.elapsedRealtime();
+        mSnapshotCount++;
+    }
+
+    static void dump(PrintWriter pw) {
+        RunningServiceTracker tracker;
+        synchronized (RunningServiceTracker.class) {
+            tracker = sInstance;
+        }
+        if (tracker == null) {
+            return;
+        }
+        synchronized (tracker) {
+            pw.println("  services: observing=" + tracker.mObserving
+                    + " snapshots=" + tracker.mSnapshotCount
+                    + " size=" + tracker.mServices.size());
+        }
+    }
+}
@@ -0,0 +1,152 @@
+/*
+* Copyright (C) 2021 AICP
+*
+* Licensed under the Apache License, Version 2.0 (the "License");
+* you may not use this file except in compliance with the License.
+* You may obtain a copy of the License at
+*
+* http://www.apache.org/licenses/LICENSE-2.0
+*
+* Unless required by applicable law or agreed to in writing, software
+* distributed under the License is distributed on an "AS IS" BASIS,
+* WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+* See the License for the specific language governing permissions and
+* limitations under the License.
+*/
+
+package com.aicp.gear.util;
+
+import android.content.Context;
+import android.content.res.Resources;
+import android.util.Log;
+
+import java.util.Arrays;
+
+/**
+ * The SystemUI drawables of the built-in actions, resolved once.
+ *
+ * The table holds SystemUI's resources and the resource id of every action icon in a
+ * primitive array, sorted like the action ids. It is rebuilt only after SystemUI or one
+ * of its overlays changed, which also clears the {@link ActionIconCache}.
+ */
+final class SystemIconTable {
+    private static final String TAG = "SystemIconTable";
+
+    static final String SYSTEMUI_PACKAGE_NAME = "com.android.systemui";
+
+    private static final String ICON_NULL = "ic_sysbar_null";
+
+    // Action id -> drawable name, sorted by action id in the static initializer
+    private static final String[] ACTIONS;
+    private static final String[] ICONS;
+
+    static {
+        // ToDo: Add the resources to SystemUI.
+        String[][] icons = {
+            { ActionConstants.ACTION_HOME, "ic_sysbar_home" },
+            { ActionConstants.ACTION_BACK, "ic_sysbar_back" },
+            { ActionConstants.ACTION_RECENTS, "ic_sysbar_recent" },
+            { ActionConstants.ACTION_SEARCH, "ic_sysbar_search" },
+            { ActionConstants.ACTION_ASSIST, "ic_sysbar_search" },
+            { ActionConstants.ACTION_KEYGUARD_SEARCH, "ic_sysbar_search_light" },
+            { ActionConstants.ACTION_MENU, "ic_sysbar_menu" },
+            { ActionConstants.ACTION_MENU_BIG, "ic_sysbar_menu_big" },
+            { ActionConstants.ACTION_IME, "ic_sysbar_ime_switcher" },
+            { ActionConstants.ACTION_KILL, "ic_sysbar_killtask" },
+            { ActionConstants.ACTION_POWER, "ic_sysbar_power" },
+            { ActionConstants.ACTION_POWER_MENU, "ic_sysbar_power_menu" },
+            { ActionConstants.ACTION_VIB, "ic_sysbar_vib" },
+            { ActionConstants.ACTION_SILENT, "ic_sysbar_silent" },
+            { ActionConstants.ACTION_VIB_SILENT, "ic_sysbar_ring_vib_silent" },
+        };
+        Arrays.sort(icons, (a, b) -> a[0].compareTo(b[0]));
+        ACTIONS = new String[icons.length];
+        ICONS = new String[icons.length];
+        for (int i = 0; i < icons.length; i++) {
+            ACTIONS[i] = icons[i][0];
+            ICONS[i] = icons[i][1];
+        }
+    }
+
+    private static volatile SystemIconTable sInstance;
+
+    private static final PackageChangeReceiver.Listener sListener =
+            new PackageChangeReceiver.Listener() {
+        @Override
+        public void onPackageChanged(String packageName, int userId) {
+            if (SYSTEMUI_PACKAGE_NAME.equals(packageName)) {
+                invalidate();
+            }
+        }
+
+        @Override
+        public void onPackagesChanged(int userId) {
+            // SystemUI is never on external storage
+        }
+    };
+
+    private final Resources mResources;
+    private final int[] mResIds;
+    private final int mNullResId;
+
+    private SystemIconTable(Resources resources) {
+        mResources = resources;
+        mResIds = new int[ACTIONS.length];
+        for (int i = 0; i < ACTIONS.length; i++) {
+            mResIds[i] = getDrawableId(resources, ICONS[i]);
+        }
+        mNullResId = getDrawableId(resources, ICON_NULL);
+    }
+
+    /**
+     * @return the table of the current SystemUI, or null if its resources are unavailable
+     */
+    static SystemIconTable get(Context context) {
+        SystemIconTable table = sInstance;
+        if (table != null) {
+            return table;
+        }
+        synchronized (SystemIconTable.class) {
+            if (sInstance == null) {
+                PackageChangeReceiver.addListener(context, sListener);
+                try {
+                    sInstance = new SystemIconTable(context.getPackageManager()
+                            .getResourcesForApplication(SYSTEMUI_PACKAGE_NAME));
+                } catch (Exception e) {
+                    Log.e(TAG, "can't access systemui resources", e);
+                }
+            }
+            return sInstance;
+        }
+    }
+
+    /**
+     * Drops the table and the cached icons, so both are resolved again on next use.
+     */
+    static void invalidate() {
+        synchronized (SystemIconTable.class) {
+            sInstance = null;
+        }
+        ActionIconCache.clear();
+    }
+
+    Resources getResources() {
+        return mResources;
+    }
+
+    /**
+     * @return the icon of a built-in action, the null icon for any other action
+     */
+    int getIconResId(String action) {
+        int index = Arrays.binarySearch(ACTIONS, action);
+        return index >= 0 ? mResIds[index] : mNullResId;
+    }
+
+    int getNullIconResId() {
+        return mNullResId;
+    }
+
+    private static int getDrawableId(Resources resources, String name) {
+        return resources.getIdentifier(name, "drawable", SYSTEMUI_PACKAGE_NAME);
+    }
+}
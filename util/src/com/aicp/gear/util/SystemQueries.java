@@ -0,0 +1,140 @@
+/*
+* Copyright (C) 2021 AICP
+*
+* Licensed under the Apache License, Version 2.0 (the "License");
+* you may not use this file except in compliance with the License.
+* You may obtain a copy of the License at
+*
+* http://www.apache.org/licenses/LICENSE-2.0
+*
+* Unless required by applicable law or agreed to in writing, software
+* distributed under the License is distributed on an "AS IS" BASIS,
+* WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+* See the License for the specific language governing permissions and
+* limitations under the License.
+*/
+
+package com.aicp.gear.util;
+
+import android.content.Context;
+import android.os.SystemClock;
+
+import java.io.PrintWriter;
+
+/**
+ * The single implementation behind the package, service and device capability helpers
+ * of {@link AicpUtils}, {@link OnTheGoUtils} and {@link DeviceUtils}.
+ *
+ * Results come from {@link PackageSnapshot}, {@link RunningServiceTracker} and
+ * {@link DeviceCapabilities}. Every query is counted and timed, see {@link AicpUtils#dump}.
+ */
+final class SystemQueries {
+    private static final String TAG = "SystemQueries";
+
+    private static final int QUERY_PACKAGE_INSTALLED = 0;
+    private static final int QUERY_PACKAGE_ENABLED = 1;
+    private static final int QUERY_PACKAGE_AVAILABLE = 2;
+    private static final int QUERY_SERVICE_RUNNING = 3;
+    // Followed by one query per device capability
+    private static final int QUERY_CAPABILITY = 4;
+
+    private static final String[] QUERY_NAMES = {
+        "packageInstalled", "packageEnabled", "packageAvailable", "serviceRunning",
+    };
+
+    private static final int QUERY_COUNT = QUERY_CAPABILITY + DeviceCapabilities.getCount();
+
+    // Guarded by sStatsLock
+    private static final Object sStatsLock = new Object();
+    private static final long[] sCounts = new long[QUERY_COUNT];
+    private static final long[] sTotalNanos = new long[QUERY_COUNT];
+    private static final long[] sMaxNanos = new long[QUERY_COUNT];
+
+    private SystemQueries() {
+        // This class is not supposed to be instantiated
+    }
+
+    static boolean isPackageInstalled(Context context, String packageName) {
+        long start = SystemClock.elapsedRealtimeNanos();
+        try {
+            return PackageSnapshot.getInstance(context).isInstalled(packageName,
+                    context.getUserId());
+        } finally {
+            record(QUERY_PACKAGE_INSTALLED, start);
+        }
+    }
+
+    static boolean isPackageEnabled(Context context, String packageName) {
+        long start = SystemClock.elapsedRealtimeNanos();
+        try {
+            return PackageSnapshot.getInstance(context).isEnabled(packageName,
+                    context.getUserId());
+        } finally {
+            record(QUERY_PACKAGE_ENABLED, start);
+        }
+    }
+
+    static boolean isPackageAvailable(Context context, String packageName) {
+        long start = SystemClock.elapsedRealtimeNanos();
+        try {
+            return PackageSnapshot.getInstance(context).isAvailable(packageName,
+                    context.getUserId());
+        } finally {
+            record(QUERY_PACKAGE_AVAILABLE, start);
+        }
+    }
+
+    static boolean isServiceRunning(Context context, String serviceName) {
+        long start = SystemClock.elapsedRealtimeNanos();
+        try {
+            return RunningServiceTracker.getInstance(context).isRunning(serviceName);
+        } finally {
+            record(QUERY_SERVICE_RUNNING, start);
+        }
+    }
+
+    static void invalidateRunningServices(Context context) {
+        RunningServiceTracker.getInstance(context).invalidate();
+    }
+
+    /**
+     * @param capability one of the {@link DeviceCapabilities} constants
+     */
+    static boolean hasCapability(Context context, int capability) {
+        long start = SystemClock.elapsedRealtimeNanos();
+        try {
+            return DeviceCapabilities.getInstance(context).isSupported(capability);
+        } finally {
+            record(QUERY_CAPABILITY + capability, start);
+        }
+    }
+
+    private static void record(int query, long start) {
+        long nanos = SystemClock.elapsedRealtimeNanos() - start;
+        synchronized (sStatsLock) {
+            sCounts[query]++;
+            sTotalNanos[query] += nanos;
+            sMaxNanos[query] = Math.max(sMaxNanos[query], nanos);
+        }
+    }
+
+    private static String nameOf(int query) {
+        return query < QUERY_CAPABILITY ? QUERY_NAMES[query]
+                : DeviceCapabilities.nameOf(query - QUERY_CAPABILITY);
+    }
+
+    static void dump(PrintWriter pw) {
+        pw.println(TAG + ":");
+        synchronized (sStatsLock) {
+            for (int i = 0; i < QUERY_COUNT; i++) {
+                if (sCounts[i] == 0) {
+                    continue;
+                }
+                pw.println("  " + nameOf(i) + ": calls=" + sCounts[i]
+                        + " averageUs=" + sTotalNanos[i] / sCounts[i] / 1000
+                        + " maxUs=" + sMaxNanos[i] / 1000);
+            }
+        }
+        RunningServiceTracker.dump(pw);
+    }
+}
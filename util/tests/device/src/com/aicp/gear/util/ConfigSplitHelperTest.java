@@ -0,0 +1,122 @@
+/*
+* Copyright (C) 2021 AICP
+*
+* Licensed under the Apache License, Version 2.0 (the "License");
+* you may not use this file except in compliance with the License.
+* You may obtain a copy of the License at
+*
+* http://www.apache.org/licenses/LICENSE-2.0
+*
+* Unless required by applicable law or agreed to in writing, software
+* distributed under the License is distributed on an "AS IS" BASIS,
+* WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+* See the License for the specific language governing permissions and
+* limitations under the License.
+*/
+
+package com.aicp.gear.util;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.mockito.Mockito.mock;
+
+import android.content.Context;
+
+import androidx.test.runner.AndroidJUnit4;
+
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import java.util.ArrayList;
+import java.util.Random;
+
+/**
+ * Checks that a config written by {@link ConfigSplitHelper#setActionConfig} reads back
+ * unchanged through {@link ConfigSplitHelper#getActionConfigValues}.
+ */
+@RunWith(AndroidJUnit4.class)
+public class ConfigSplitHelperTest {
+    private static final int ITERATIONS = 10000;
+    private static final int MAX_CONFIG_COUNT = 5;
+
+    // Descriptions are never asked for, so the context is never used
+    private final Context mContext = mock(Context.class);
+
+    @Test
+    public void defaultConfig() {
+        ArrayList<ActionConfig> configs = new ArrayList<>();
+        configs.add(config(ActionConstants.ACTION_HOME, ActionConstants.ACTION_NULL,
+                ActionConstants.ICON_EMPTY));
+        configs.add(config(ActionConstants.ACTION_BACK, ActionConstants.ACTION_RECENTS,
+                ActionConstants.ICON_EMPTY));
+        assertRoundTrip(configs, false);
+        assertRoundTrip(configs, true);
+    }
+
+    @Test
+    public void emptyFields() {
+        ArrayList<ActionConfig> configs = new ArrayList<>();
+        configs.add(config("", "", ""));
+        configs.add(config(ActionConstants.ACTION_HOME, "", ""));
+        configs.add(config("", ActionConstants.ACTION_BACK, ActionConstants.ICON_EMPTY));
+        assertRoundTrip(configs, false);
+        assertRoundTrip(configs, true);
+    }
+
+    @Test
+    public void trailingEmptyField() {
+        ArrayList<ActionConfig> configs = new ArrayList<>();
+        configs.add(config(ActionConstants.ACTION_HOME, ActionConstants.ACTION_NULL,
+                ActionConstants.ICON_EMPTY));
+        configs.add(config(ActionConstants.ACTION_BACK, ActionConstants.ACTION_NULL, ""));
+        assertRoundTrip(configs, false);
+        assertRoundTrip(configs, true);
+    }
+
+    @Test
+    public void noConfigs() {
+        assertRoundTrip(new ArrayList<ActionConfig>(), false);
+        assertRoundTrip(new ArrayList<ActionConfig>(), true);
+    }
+
+    @Test
+    public void randomConfigs() {
+        Random random = new Random(0x52545250L);
+        String[] fields = { "", "", ActionConstants.ACTION_HOME, ActionConstants.ACTION_NULL,
+                ActionConstants.ICON_EMPTY, "intent:#Intent;end" };
+        for (int i = 0; i < ITERATIONS; i++) {
+            ArrayList<ActionConfig> configs = new ArrayList<>();
+            int count = random.nextInt(MAX_CONFIG_COUNT + 1);
+            for (int j = 0; j < count; j++) {
+                configs.add(config(fields[random.nextInt(fields.length)],
+                        fields[random.nextInt(fields.length)],
+                        fields[random.nextInt(fields.length)]));
+            }
+            assertRoundTrip(configs, random.nextBoolean());
+        }
+    }
+
+    private void assertRoundTrip(ArrayList<ActionConfig> configs, boolean isShortcut) {
+        String config = ConfigSplitHelper.setActionConfig(configs, isShortcut);
+        ArrayList<ActionConfig> actual = ConfigSplitHelper.getActionConfigValues(mContext,
+                config, null, null, isShortcut);
+        assertEquals("count of \"" + config + "\"", configs.size(), actual.size());
+        for (int i = 0; i < configs.size(); i++) {
+            String message = "config " + i + " of \"" + config + "\"";
+            assertEquals(message, configs.get(i).getClickAction(),
+                    actual.get(i).getClickAction());
+            if (isShortcut) {
+                assertNull(message, actual.get(i).getLongpressAction());
+            } else {
+                assertEquals(message, configs.get(i).getLongpressAction(),
+                        actual.get(i).getLongpressAction());
+            }
+            assertEquals(message, configs.get(i).getIcon(), actual.get(i).getIcon());
+        }
+    }
+
+    private static ActionConfig config(String clickAction, String longpressAction,
+            String icon) {
+        return new ActionConfig(clickAction, null, longpressAction, null, icon);
+    }
+}
@@ -0,0 +1,109 @@
+/*
+* Copyright (C) 2021 AICP
+*
+* Licensed under the Apache License, Version 2.0 (the "License");
+* you may not use this file except in compliance with the License.
+* You may obtain a copy of the License at
+*
+* http://www.apache.org/licenses/LICENSE-2.0
+*
+* Unless required by applicable law or agreed to in writing, software
+* distributed under the License is distributed on an "AS IS" BASIS,
+* WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+* See the License for the specific language governing permissions and
+* limitations under the License.
+*/
+
+package com.aicp.gear.util;
+
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+import android.content.Context;
+import android.content.pm.ApplicationInfo;
+import android.content.pm.PackageManager;
+
+import androidx.test.runner.AndroidJUnit4;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import java.util.Arrays;
+
+/**
+ * Checks that {@link PackageSnapshot} answers like the package manager queries it
+ * replaced, {@code getInstalledApplications(0)} and {@code getApplicationInfo(pkg, 0)}.
+ */
+@RunWith(AndroidJUnit4.class)
+public class PackageSnapshotTest {
+    private static final int USER_ID = 0;
+
+    private static final String ENABLED = "com.example.enabled";
+    private static final String DISABLED = "com.example.disabled";
+    private static final String DISABLED_UNTIL_USED = "com.example.carrier";
+    private static final String MISSING = "com.example.missing";
+
+    private PackageManager mPackageManager;
+    private PackageSnapshot mSnapshot;
+
+    @Before
+    public void setUp() {
+        Context context = mock(Context.class);
+        mPackageManager = mock(PackageManager.class);
+        when(context.getPackageManager()).thenReturn(mPackageManager);
+        when(context.getUserId()).thenReturn(USER_ID);
+        // Without MATCH_DISABLED_UNTIL_USED_COMPONENTS the framework reports disabled until
+        // used packages, but not as enabled
+        when(mPackageManager.getInstalledApplicationsAsUser(0, USER_ID)).thenReturn(
+                Arrays.asList(
+                        app(ENABLED, PackageManager.COMPONENT_ENABLED_STATE_DEFAULT, true),
+                        app(DISABLED, PackageManager.COMPONENT_ENABLED_STATE_DISABLED_USER,
+                                false),
+                        app(DISABLED_UNTIL_USED,
+                                PackageManager.COMPONENT_ENABLED_STATE_DISABLED_UNTIL_USED,
+                                false)));
+        mSnapshot = new PackageSnapshot(context);
+    }
+
+    @Test
+    public void enabledPackage() {
+        assertTrue(mSnapshot.isInstalled(ENABLED, USER_ID));
+        assertTrue(mSnapshot.isEnabled(ENABLED, USER_ID));
+        assertTrue(mSnapshot.isAvailable(ENABLED, USER_ID));
+    }
+
+    @Test
+    public void disabledPackage() {
+        assertTrue(mSnapshot.isInstalled(DISABLED, USER_ID));
+        assertFalse(mSnapshot.isEnabled(DISABLED, USER_ID));
+        assertFalse(mSnapshot.isAvailable(DISABLED, USER_ID));
+    }
+
+    @Test
+    public void disabledUntilUsedPackage() {
+        assertTrue(mSnapshot.isInstalled(DISABLED_UNTIL_USED, USER_ID));
+        assertFalse(mSnapshot.isEnabled(DISABLED_UNTIL_USED, USER_ID));
+        assertTrue(mSnapshot.isAvailable(DISABLED_UNTIL_USED, USER_ID));
+        verify(mPackageManager).getInstalledApplicationsAsUser(0, USER_ID);
+    }
+
+    @Test
+    public void missingPackage() {
+        assertFalse(mSnapshot.isInstalled(MISSING, USER_ID));
+        assertFalse(mSnapshot.isEnabled(MISSING, USER_ID));
+        assertFalse(mSnapshot.isAvailable(MISSING, USER_ID));
+    }
+
+    private static ApplicationInfo app(String packageName, int enabledSetting,
+            boolean enabled) {
+        ApplicationInfo ai = new ApplicationInfo();
+        ai.packageName = packageName;
+        ai.enabledSetting = enabledSetting;
+        ai.enabled = enabled;
+        return ai;
+    }
+}
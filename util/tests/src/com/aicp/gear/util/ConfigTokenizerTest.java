@@ -0,0 +1,138 @@
+/*
+* Copyright (C) 2021 AICP
+*
+* Licensed under the Apache License, Version 2.0 (the "License");
+* you may not use this file except in compliance with the License.
+* You may obtain a copy of the License at
+*
+* http://www.apache.org/licenses/LICENSE-2.0
+*
+* Unless required by applicable law or agreed to in writing, software
+* distributed under the License is distributed on an "AS IS" BASIS,
+* WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+* See the License for the specific language governing permissions and
+* limitations under the License.
+*/
+
+package com.aicp.gear.util;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+/**
+ * Checks that {@link ConfigTokenizer} groups a config exactly like {@code String.split}
+ * keeping trailing empty fields. The round trip through the serializer is checked by
+ * ConfigSplitHelperTest on the device.
+ */
+@RunWith(JUnit4.class)
+public class ConfigTokenizerTest {
+    private static final char DELIMITER = '|';
+    private static final int FUZZ_ITERATIONS = 100000;
+    private static final int MAX_CONFIG_LENGTH = 24;
+    // Mostly delimiters, so empty fields at every position are common
+    private static final char[] ALPHABET = { '|', '|', '|', 'a', 'b', '*' };
+
+    @Test
+    public void emptyConfig() {
+        assertGroups("", 3);
+        assertGroups("", 2);
+    }
+
+    @Test
+    public void onlyDelimiters() {
+        assertGroups("|", 3);
+        assertGroups("|||", 3);
+        assertGroups("||||||", 2);
+    }
+
+    @Test
+    public void completeGroups() {
+        assertGroups("**home**|**null**|empty|**back**|**null**|empty", 3);
+        assertGroups("**home**|empty|**back**|empty", 2);
+    }
+
+    @Test
+    public void trailingEmptyFields() {
+        // The empty icon of the last group is kept along with the group
+        assertGroups("a|b|", 3);
+        assertGroups("a|b|c|", 3);
+        assertGroups("a|b|c||||", 3);
+        assertGroups("a|", 2);
+    }
+
+    @Test
+    public void middleEmptyFields() {
+        assertGroups("a||c", 3);
+        assertGroups("||c|d||f", 3);
+        assertGroups("|b|c", 3);
+        assertGroups("a||c||", 2);
+    }
+
+    @Test
+    public void incompleteLastGroup() {
+        assertGroups("a|b|c|d", 3);
+        assertGroups("a|b|c|d|e", 3);
+        assertGroups("a|b|c", 2);
+    }
+
+    @Test
+    public void fuzz() {
+        Random random = new Random(0x434f4e46L);
+        char[] config = new char[MAX_CONFIG_LENGTH];
+        for (int i = 0; i < FUZZ_ITERATIONS; i++) {
+            int length = random.nextInt(MAX_CONFIG_LENGTH + 1);
+            for (int j = 0; j < length; j++) {
+                config[j] = ALPHABET[random.nextInt(ALPHABET.length)];
+            }
+            String value = new String(config, 0, length);
+            assertGroups(value, 3);
+            assertGroups(value, 2);
+        }
+    }
+
+    private static void assertGroups(String config, int groupSize) {
+        List<String[]> expected = split(config, groupSize);
+        List<String[]> actual = tokenize(config, groupSize);
+        assertEquals("group count of \"" + config + "\"", expected.size(), actual.size());
+        for (int i = 0; i < expected.size(); i++) {
+            assertArrayEquals("group " + i + " of \"" + config + "\"",
+                    expected.get(i), actual.get(i));
+        }
+    }
+
+    private static List<String[]> tokenize(String config, int groupSize) {
+        List<String[]> groups = new ArrayList<>();
+        ConfigTokenizer tokenizer = new ConfigTokenizer(config, DELIMITER, groupSize);
+        while (tokenizer.hasNext()) {
+            groups.add(tokenizer.next());
+        }
+        return groups;
+    }
+
+    /**
+     * The parsing of ConfigSplitHelper before the tokenizer, reduced to the fields, but
+     * keeping trailing empty fields.
+     */
+    private static List<String[]> split(String config, int groupSize) {
+        List<String[]> groups = new ArrayList<>();
+        String[] group = new String[groupSize];
+        int counter = 0;
+        for (String configValue : config.split("\\" + DELIMITER, -1)) {
+            group[counter++] = configValue;
+            if (counter == groupSize) {
+                groups.add(group);
+                group = new String[groupSize];
+                counter = 0;
+            }
+        }
+        return groups;
+    }
+}